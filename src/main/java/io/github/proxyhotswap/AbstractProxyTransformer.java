@@ -1,91 +1,180 @@
 package io.github.proxyhotswap;
 
-import io.github.proxyhotswap.javassist.ClassPool;
 import io.github.proxyhotswap.javassist.CtClass;
 import io.github.proxyhotswap.javassist.CtField;
 import io.github.proxyhotswap.javassist.CtMethod;
 import io.github.proxyhotswap.javassist.Modifier;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
+import io.github.proxyhotswap.metrics.Counter;
 
-import java.io.ByteArrayInputStream;
-import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
-import java.lang.instrument.UnmodifiableClassException;
 import java.security.ProtectionDomain;
-import java.util.Map;
 import java.util.UUID;
 
 /**
  * @author Erki Ehtla
  * 
  */
-public abstract class AbstractProxyTransformer implements ClassFileTransformer {
+public abstract class AbstractProxyTransformer implements ClassFileTransformer, ClassViewTransformer {
 	protected static final String INIT_FIELD_PREFIX = "initCalled";
-	protected static final ClassPool classPool = TransformationUtils.getClassPool();
+	/* how many times a failed generation is scheduled again */
+	private static final int MAX_RETRIES = Integer.getInteger("io.github.proxyhotswap.maxRetries", 2);
 	
 	protected Instrumentation inst;
-	protected Map<Class<?>, TransformationState> transformationStates;
-	
-	public AbstractProxyTransformer(Instrumentation inst, Map<Class<?>, TransformationState> transformationStates) {
+	/* ClassValue does not keep the proxy classes from being unloaded */
+	protected ClassValue<ProxyState> proxyStates = new ClassValue<ProxyState>() {
+		@Override
+		protected ProxyState computeValue(Class<?> type) {
+			return new ProxyState();
+		}
+	};
+	protected RedefinitionScheduler scheduler;
+	protected Timer transformTimer = Metrics.timer("transform." + getClass().getSimpleName());
+	protected Timer generateTimer = Metrics.timer("generate." + getClass().getSimpleName());
+	protected Counter bytesGenerated = Metrics.counter("bytesGenerated." + getClass().getSimpleName());
+	protected Counter unchangedGenerated = Metrics.counter("generate.unchanged." + getClass().getSimpleName());
+	
+	public AbstractProxyTransformer(Instrumentation inst) {
 		this.inst = inst;
-		this.transformationStates = transformationStates;
+		this.scheduler = RedefinitionScheduler.getInstance(inst);
 	}
 	
 	@Override
 	public byte[] transform(ClassLoader loader, String className, final Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
+		return transform(new ClassView(loader, className, classBeingRedefined, protectionDomain, classfileBuffer));
+	}
+	
+	@Override
+	public byte[] transform(ClassView classView) throws IllegalClassFormatException {
+		String className = classView.getClassName();
+		Class<?> classBeingRedefined = classView.getClassBeingRedefined();
+		byte[] classfileBuffer = classView.getClassfileBuffer();
+		long start = System.nanoTime();
 		try {
-			if (classBeingRedefined == null || !isProxy(className, classBeingRedefined, classfileBuffer)) {
+			if (className == null || !isProxy(classView.getLoader(), className, classBeingRedefined, classfileBuffer)) {
 				return null;
 			}
-			return transformRedefine(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+			if (classBeingRedefined == null) {
+				ProxyIndex.register(classView.getLoader(), classfileBuffer);
+				return null;
+			}
+			return transformRedefine(classView.getLoader(), className, classBeingRedefined,
+					classView.getProtectionDomain(), classfileBuffer);
 		} catch (Exception e) {
-			removeClassState(classBeingRedefined);
 			TransformationUtils.logError(e);
 			throw new RuntimeException(e);
+		} finally {
+			transformTimer.stop(start);
 		}
 	}
 	
 	private boolean isTransformingNeeded(Class<?> classBeingRedefined) {
-		Class<?> superclass = classBeingRedefined.getSuperclass();
-		if (superclass != null && ClassfileBufferSigantureTransformer.hasClassChanged(superclass))
-			return true;
-		Class<?>[] interfaces = classBeingRedefined.getInterfaces();
-		for (Class<?> clazz : interfaces) {
-			if (ClassfileBufferSigantureTransformer.hasClassChanged(clazz))
-				return true;
-		}
-		return false;
+		return ClassfileBufferSigantureTransformer.hasSuperClassOrInterfaceChanged(classBeingRedefined);
 	}
 	
-	protected abstract boolean isProxy(String className, Class<?> classBeingRedefined, byte[] classfileBuffer)
-			throws Exception;
+	protected abstract boolean isProxy(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			byte[] classfileBuffer) throws Exception;
 	
 	protected byte[] transformRedefine(ClassLoader loader, String className, Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, byte[] classfileBuffer) throws Exception {
-		switch (getTransformationstate(classBeingRedefined)) {
-			case NEW:
-				if (!isTransformingNeeded(classBeingRedefined)) {
+		ProxyState state = getProxyState(classBeingRedefined);
+		TransformationState current = state.get();
+		switch (current) {
+			case DETECTED:
+			case APPLIED:
+			case FAILED:
+				// a failed class is tried again on its next redefinition
+				if (current != TransformationState.FAILED && !isTransformingNeeded(classBeingRedefined)) {
 					return null;
 				}
-				setClassAsWaiting(classBeingRedefined);
+				// the generator already sees the changes, the proxy does not need a second redefinition
+				if (canRegenerateImmediately(classBeingRedefined)) {
+					if (!state.transition(current, TransformationState.REGENERATING))
+						return null;
+					state.resetRetries();
+					return regenerate(state, loader, className, classBeingRedefined, classfileBuffer);
+				}
+				// a concurrent redefinition got here first
+				if (!state.transition(current, TransformationState.SCHEDULED))
+					return null;
+				state.resetRetries();
 				// We can't do the transformation in this event, because we can't see the changes in the class
 				// definitons. Schedule a new redefinition event.
 				scheduleRedefinition(classBeingRedefined, classfileBuffer);
 				return null;
-			case WAITING:
-				removeClassState(classBeingRedefined);
-				return generateNewProxyClass(loader, className, classBeingRedefined);
+			case SCHEDULED:
+				if (!state.transition(TransformationState.SCHEDULED, TransformationState.REGENERATING))
+					return null;
+				return regenerate(state, loader, className, classBeingRedefined, classfileBuffer);
+			case REGENERATING:
+				// generated again when the running generation is done, it may not see the latest changes
+				state.markDirty();
+				return null;
 			default:
 				throw new RuntimeException("Unhandeled TransformationState!");
 		}
 	}
 	
+	/**
+	 * Whether the proxy can be generated in the redefinition event that finds its supertypes changed, instead of in a
+	 * second, scheduled redefinition. Only if the generator sees the changes at that point.
+	 */
+	protected boolean canRegenerateImmediately(Class<?> classBeingRedefined) {
+		return false;
+	}
+	
+	private byte[] regenerate(ProxyState state, ClassLoader loader, String className, Class<?> classBeingRedefined,
+			byte[] classfileBuffer) throws Exception {
+		state.clearDirty();
+		// cleared before generating, so supertype changes made during the generation are not lost
+		ProxyIndex.clearChanged(classBeingRedefined);
+		byte[] bytecode;
+		try {
+			bytecode = generateNewProxyClass(loader, className, classBeingRedefined);
+		} catch (Exception e) {
+			if (state.incrementRetries() <= MAX_RETRIES) {
+				state.set(TransformationState.SCHEDULED);
+				scheduleRedefinition(classBeingRedefined, classfileBuffer);
+			} else {
+				state.set(TransformationState.FAILED);
+			}
+			throw e;
+		}
+		if (state.clearDirty()) {
+			state.set(TransformationState.SCHEDULED);
+			scheduleRedefinition(classBeingRedefined, classfileBuffer);
+		} else {
+			state.transition(TransformationState.REGENERATING, TransformationState.APPLIED);
+		}
+		return bytecode;
+	}
+	
 	protected byte[] generateNewProxyClass(ClassLoader loader, String className, Class<?> classBeingRedefined)
 			throws Exception {
-		
+		ProxyState state = getProxyState(classBeingRedefined);
+		String cacheKey = null;
+		if (isCacheEnabled()) {
+			cacheKey = ProxyBytecodeCache.getKey(getClass().getName(), classBeingRedefined);
+			byte[] cached = ProxyBytecodeCache.get(cacheKey);
+			if (cached != null) {
+				// the generated bytes of the applied definition are not known
+				state.setGenerated(null);
+				return cached;
+			}
+		}
+		long start = System.nanoTime();
 		byte[] newByteCode = getNewByteCode(loader, className, classBeingRedefined);
+		// the proxy is generated again only once its new definition can be seen, so the scheduled redefinition has
+		// already happened, it just keeps the current definition
+		if (state.isGenerated(newByteCode)) {
+			generateTimer.stop(start);
+			unchangedGenerated.increment();
+			return null;
+		}
 		
 		CtClass cc = getCtClass(newByteCode, className);
 		String random = generateRandomString();
@@ -96,11 +185,21 @@ public abstract class AbstractProxyTransformer implements ClassFileTransformer {
 		
 		addInitCallToMethods(cc, initFieldName, method);
 		
-		return cc.toBytecode();
+		byte[] bytecode = cc.toBytecode();
+		state.setGenerated(newByteCode);
+		generateTimer.stop(start);
+		bytesGenerated.add(bytecode.length);
+		if (cacheKey != null)
+			ProxyBytecodeCache.put(cacheKey, bytecode);
+		return bytecode;
+	}
+	
+	protected boolean isCacheEnabled() {
+		return ProxyBytecodeCache.isEnabled();
 	}
 	
 	protected CtClass getCtClass(byte[] newByteCode, String className) throws Exception {
-		return classPool.makeClass(new ByteArrayInputStream(newByteCode), false);
+		return TransformationUtils.makeScopedClass(newByteCode);
 	}
 	
 	protected abstract String getInitCall(CtClass cc, String random) throws Exception;
@@ -108,11 +207,8 @@ public abstract class AbstractProxyTransformer implements ClassFileTransformer {
 	protected abstract byte[] getNewByteCode(ClassLoader loader, String className, Class<?> classBeingRedefined)
 			throws Exception;
 	
-	protected TransformationState getTransformationstate(final Class<?> classBeingRedefined) {
-		TransformationState transformationState = transformationStates.get(classBeingRedefined);
-		if (transformationState == null)
-			transformationState = TransformationState.NEW;
-		return transformationState;
+	public ProxyState getProxyState(Class<?> proxy) {
+		return proxyStates.get(proxy);
 	}
 	
 	protected String generateRandomString() {
@@ -120,10 +216,11 @@ public abstract class AbstractProxyTransformer implements ClassFileTransformer {
 	}
 	
 	protected void addInitCallToMethods(CtClass cc, String clinitFieldName, String initCall) throws Exception {
+		InitGuard guard = InitGuard.compile(cc, clinitFieldName, initCall);
 		CtMethod[] methods = cc.getDeclaredMethods();
 		for (CtMethod ctMethod : methods) {
 			if (!ctMethod.isEmpty() && !Modifier.isStatic(ctMethod.getModifiers())) {
-				ctMethod.insertBefore("if(!" + clinitFieldName + "){" + initCall + "}");
+				guard.insertInto(ctMethod);
 			}
 		}
 	}
@@ -136,24 +233,21 @@ public abstract class AbstractProxyTransformer implements ClassFileTransformer {
 	}
 	
 	protected void scheduleRedefinition(final Class<?> classBeingRedefined, final byte[] classfileBuffer) {
-		new Thread() {
+		scheduler.schedule(classBeingRedefined, classfileBuffer, new RedefinitionScheduler.Callback() {
 			@Override
-			public void run() {
-				try {
-					inst.redefineClasses(new ClassDefinition(classBeingRedefined, classfileBuffer));
-				} catch (ClassNotFoundException | UnmodifiableClassException e) {
-					removeClassState(classBeingRedefined);
-					throw new RuntimeException(e);
-				}
+			public void retrying(Class<?> clazz) {
+				// the batch was rolled back, generate the class again
+				ProxyState state = getProxyState(clazz);
+				state.setGenerated(null);
+				state.set(TransformationState.SCHEDULED);
 			}
-		}.start();
-	}
-	
-	protected TransformationState setClassAsWaiting(Class<?> classBeingRedefined) {
-		return transformationStates.put(classBeingRedefined, TransformationState.WAITING);
-	}
-	
-	protected TransformationState removeClassState(Class<?> classBeingRedefined) {
-		return transformationStates.remove(classBeingRedefined);
+			
+			@Override
+			public void failed(Class<?> clazz, Throwable e) {
+				ProxyState state = getProxyState(clazz);
+				state.setGenerated(null);
+				state.set(TransformationState.FAILED);
+			}
+		});
 	}
 }
\ No newline at end of file
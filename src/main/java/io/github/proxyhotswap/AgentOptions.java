@@ -0,0 +1,65 @@
+package io.github.proxyhotswap;
+
+/**
+ * Options given to the agent as -javaagent:proxyhotswap.jar=options. The options are comma separated key=value pairs,
+ * a value can list several prefixes separated by colons:
+ * 
+ * <pre>
+ * include=com.acme:org.springframework.cglib,exclude=com.acme.dto.,excludeLoader=org.jboss.modules.
+ * </pre>
+ * 
+ * include and exclude are prefixes of class names, includeLoader and excludeLoader prefixes of class loader class names.
+ * The classes of the JDK are excluded by default, except for its proxy packages.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class AgentOptions {
+	private final ClassFilter classFilter = ClassFilter.createDefault();
+	
+	public static AgentOptions parse(String agentArgs) {
+		AgentOptions options = new AgentOptions();
+		if (agentArgs == null)
+			return options;
+		for (String option : agentArgs.split(",")) {
+			option = option.trim();
+			if (option.isEmpty())
+				continue;
+			int separator = option.indexOf('=');
+			if (separator < 0) {
+				TransformationUtils.logError(new IllegalArgumentException("Invalid agent option: " + option));
+				continue;
+			}
+			String key = option.substring(0, separator).trim();
+			for (String value : option.substring(separator + 1).split(":")) {
+				value = value.trim();
+				if (!value.isEmpty())
+					options.apply(key, value);
+			}
+		}
+		return options;
+	}
+	
+	private void apply(String key, String value) {
+		switch (key) {
+			case "include":
+				classFilter.includeClasses(value);
+				break;
+			case "exclude":
+				classFilter.excludeClasses(value);
+				break;
+			case "includeLoader":
+				classFilter.includeLoaders(value);
+				break;
+			case "excludeLoader":
+				classFilter.excludeLoaders(value);
+				break;
+			default:
+				TransformationUtils.logError(new IllegalArgumentException("Unknown agent option: " + key));
+		}
+	}
+	
+	public ClassFilter getClassFilter() {
+		return classFilter;
+	}
+}
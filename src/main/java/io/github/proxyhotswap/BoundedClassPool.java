@@ -0,0 +1,93 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ClassPool that keeps at most maxSize classes read from the class path and evicts the least recently used ones. An
+ * evicted class is read again from the class path when it is needed next time.
+ * 
+ * Interfaces made from class files, the redefined versions of interfaces, are kept apart and never evicted. The java
+ * proxy generator reads the interfaces from the pool, which only searches the system class path, so for the other class
+ * loaders they are the only copy of the interface it has, and the ones on the class path would be the stale definitions
+ * anyway. A later redefinition replaces the interface. Other classes made from class files, like the redefined proxies,
+ * are evicted like the ones read from the class path.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class BoundedClassPool extends ClassPool {
+	private final Map<String, CtClass> cache;
+	/* interfaces added with makeClass, by name */
+	private final Map<String, CtClass> defined = new HashMap<>();
+	
+	public BoundedClassPool(final int maxSize) {
+		super(null);
+		cache = new LinkedHashMap<String, CtClass>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CtClass> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	@Override
+	protected CtClass getCached(String classname) {
+		synchronized (cache) {
+			CtClass cc = defined.get(classname);
+			if (cc == null)
+				cc = cache.get(classname);
+			if (cc != null)
+				return cc;
+		}
+		// primitive types are put straight into the classes table by the ClassPool constructor
+		return super.getCached(classname);
+	}
+	
+	@Override
+	protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+		synchronized (cache) {
+			if (dynamic && c.isInterface()) {
+				defined.put(classname, c);
+				cache.remove(classname);
+			} else if (dynamic) {
+				defined.remove(classname);
+				cache.put(classname, c);
+			} else if (!defined.containsKey(classname)) {
+				cache.put(classname, c);
+			}
+		}
+	}
+	
+	@Override
+	protected CtClass removeCached(String classname) {
+		synchronized (cache) {
+			CtClass cc = defined.remove(classname);
+			return cc != null ? cc : cache.remove(classname);
+		}
+	}
+	
+	/**
+	 * Number of classes that can be evicted.
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	/**
+	 * Number of interfaces made from class files.
+	 */
+	public int getDefinedCount() {
+		synchronized (cache) {
+			return defined.size();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package io.github.proxyhotswap;
+
+/**
+ * Include and exclude rules for class names and class loaders, checked before a loaded class is given to the
+ * handlers. The longest matching prefix decides. Names that match no prefix are included, unless there are include
+ * rules, then they are excluded. The rules are set up before the filter is used.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ClassFilter {
+	private static final int EXCLUDE = 0;
+	private static final int INCLUDE = 1;
+	
+	/* class names in the internal form */
+	private final PrefixTrie classes = new PrefixTrie();
+	private final PrefixTrie loaders = new PrefixTrie();
+	private boolean hasClassIncludes;
+	private boolean hasLoaderIncludes;
+	
+	private final ClassValue<Boolean> loaderDecisions = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> loaderClass) {
+			return accepts(loaders, loaderClass.getName(), hasLoaderIncludes);
+		}
+	};
+	
+	/**
+	 * Filter that skips the classes of the JDK, except for the packages where the JDK defines proxy classes.
+	 */
+	public static ClassFilter createDefault() {
+		ClassFilter filter = new ClassFilter();
+		for (String prefix : new String[] { "java/", "javax/", "jdk/", "sun/", "com/sun/" }) {
+			filter.classes.put(prefix, EXCLUDE);
+		}
+		// not counted as include rules, they do not exclude everything else
+		filter.classes.put("com/sun/proxy/", INCLUDE);
+		filter.classes.put("jdk/proxy", INCLUDE);
+		return filter;
+	}
+	
+	/**
+	 * Class names are given with dots, as package or class name prefixes.
+	 */
+	public void includeClasses(String prefix) {
+		classes.put(prefix.replace('.', '/'), INCLUDE);
+		hasClassIncludes = true;
+	}
+	
+	public void excludeClasses(String prefix) {
+		classes.put(prefix.replace('.', '/'), EXCLUDE);
+	}
+	
+	/**
+	 * Class loaders are matched by the name of their class.
+	 */
+	public void includeLoaders(String prefix) {
+		loaders.put(prefix, INCLUDE);
+		hasLoaderIncludes = true;
+	}
+	
+	public void excludeLoaders(String prefix) {
+		loaders.put(prefix, EXCLUDE);
+	}
+	
+	/**
+	 * @param className
+	 *            name of the class in the internal form, as given to ClassFileTransformer
+	 */
+	public boolean accepts(ClassLoader loader, String className) {
+		if (className != null && !accepts(classes, className, hasClassIncludes))
+			return false;
+		if (loader != null && !loaders.isEmpty() && !loaderDecisions.get(loader.getClass()))
+			return false;
+		return true;
+	}
+	
+	private static boolean accepts(PrefixTrie trie, String name, boolean hasIncludes) {
+		int match = trie.match(name);
+		if (match == PrefixTrie.NO_MATCH)
+			return !hasIncludes;
+		return match == INCLUDE;
+	}
+}
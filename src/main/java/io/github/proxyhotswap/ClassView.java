@@ -0,0 +1,82 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.javassist.CtClass;
+
+import java.io.IOException;
+import java.security.ProtectionDomain;
+
+/**
+ * Arguments of a single ClassFileTransformer event, shared by the handlers of DispatchingTransformer. The javassist
+ * view of the class is built on first use and then reused, so the class file is parsed at most once per event.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ClassView {
+	private final ClassLoader loader;
+	private final String className;
+	private final Class<?> classBeingRedefined;
+	private final ProtectionDomain protectionDomain;
+	private final byte[] classfileBuffer;
+	private String name;
+	private CtClass ctClass;
+	
+	public ClassView(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		this.loader = loader;
+		this.className = className;
+		this.classBeingRedefined = classBeingRedefined;
+		this.protectionDomain = protectionDomain;
+		this.classfileBuffer = classfileBuffer;
+	}
+	
+	public ClassLoader getLoader() {
+		return loader;
+	}
+	
+	/**
+	 * Class name in the internal form, may be null.
+	 */
+	public String getClassName() {
+		return className;
+	}
+	
+	/**
+	 * Class name with dots, may be null.
+	 */
+	public String getName() {
+		if (name == null && className != null)
+			name = TransformationUtils.getClassName(className);
+		return name;
+	}
+	
+	public Class<?> getClassBeingRedefined() {
+		return classBeingRedefined;
+	}
+	
+	public boolean isRedefinition() {
+		return classBeingRedefined != null;
+	}
+	
+	public ProtectionDomain getProtectionDomain() {
+		return protectionDomain;
+	}
+	
+	public byte[] getClassfileBuffer() {
+		return classfileBuffer;
+	}
+	
+	/**
+	 * Parses the class on first call. Redefined classes are parsed into the shared ClassPool, where the proxy
+	 * generation reads the new definitions of supertypes from. Loaded classes are parsed into a scoped pool.
+	 */
+	public CtClass getCtClass() throws IOException {
+		if (ctClass == null) {
+			if (classBeingRedefined != null)
+				ctClass = TransformationUtils.makeSharedClass(classfileBuffer);
+			else
+				ctClass = TransformationUtils.makeScopedClass(classfileBuffer);
+		}
+		return ctClass;
+	}
+}
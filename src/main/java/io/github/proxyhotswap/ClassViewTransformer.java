@@ -0,0 +1,18 @@
+package io.github.proxyhotswap;
+
+import java.lang.instrument.IllegalClassFormatException;
+
+/**
+ * Handler of DispatchingTransformer.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public interface ClassViewTransformer {
+	
+	/**
+	 * Same contract as ClassFileTransformer.transform: returns the new class file or null if the class is not
+	 * changed.
+	 */
+	byte[] transform(ClassView classView) throws IllegalClassFormatException;
+}
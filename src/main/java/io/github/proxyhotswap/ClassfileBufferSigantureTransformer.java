@@ -1,77 +1,128 @@
 package io.github.proxyhotswap;
 
-import io.github.proxyhotswap.javassist.ClassPool;
-import io.github.proxyhotswap.javassist.CtClass;
-import io.github.proxyhotswap.javassist.CtMethod;
-import io.github.proxyhotswap.javassist.Modifier;
-import io.github.proxyhotswap.javassist.NotFoundException;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
-import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * @author Erki Ehtla
  * 
  */
-public class ClassfileBufferSigantureTransformer implements ClassFileTransformer {
+public class ClassfileBufferSigantureTransformer implements ClassFileTransformer, ClassViewTransformer {
 	
-	private static Map<String, String> classSignatures = new ConcurrentHashMap<>();
-	protected static final ClassPool classPool = TransformationUtils.getClassPool();
+	/* method table fingerprints of the latest redefinitions, keyed by the hash of the class name */
+	private static FingerprintMap classSignatures = new FingerprintMap();
+	/*
+	 * fingerprints of the loaded classes, only cached once they are equal to the latest redefinition. A class that has
+	 * not been replaced yet is computed again on each check.
+	 */
+	private static Map<Class<?>, MethodTableFingerprint> liveSignatures = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, MethodTableFingerprint>());
+	private static final Timer transformTimer = Metrics.timer("transform.ClassfileBufferSigantureTransformer");
 	
 	public byte[] transform(ClassLoader loader, String className, final Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+		return transform(new ClassView(loader, className, classBeingRedefined, protectionDomain, classfileBuffer));
+	}
+	
+	@Override
+	public byte[] transform(ClassView classView) {
+		Class<?> classBeingRedefined = classView.getClassBeingRedefined();
 		if (classBeingRedefined == null)
 			return null;
-		CtClass cc = null;
+		long start = System.nanoTime();
 		try {
-			cc = classPool.makeClass(new ByteArrayInputStream(classfileBuffer), false);
-			classSignatures.put(classBeingRedefined.getName(), getSignature(cc));
+			// kept in the shared ClassPool, proxy generation reads the new definitions of interfaces from there
+			if (classBeingRedefined.isInterface())
+				classView.getCtClass();
+			String name = classBeingRedefined.getName();
+			MethodTableFingerprint fingerprint = MethodTableFingerprint.of(classView.getClassfileBuffer());
+			classSignatures.put(MethodTableFingerprint.hash(name), fingerprint);
+			if (ProxyBytecodeCache.isEnabled())
+				ProxyBytecodeCache.putDefinition(name, classView.getClassfileBuffer());
+			// classBeingRedefined still has the old definition here
+			if (ProxyIndex.hasDependents(name) && !fingerprint.equals(MethodTableFingerprint.of(classBeingRedefined)))
+				ProxyIndex.markChanged(name);
 		} catch (IOException | RuntimeException e) {
 			TransformationUtils.logError(e);
+		} finally {
+			transformTimer.stop(start);
 		}
 		return null;
 	}
 	
-	private static String getSignature(CtClass cc) {
-		StringBuilder strBuilder = new StringBuilder();
-		for (CtMethod method : cc.getDeclaredMethods()) {
-			strBuilder.append(getMethodString(method));
-		}
-		return strBuilder.toString();
+	public static boolean hasClassChanged(Class<?> clazz) {
+		long key = MethodTableFingerprint.hash(clazz.getName());
+		if (!classSignatures.containsKey(key))
+			return false;
+		MethodTableFingerprint live = liveSignatures.get(clazz);
+		if (live != null && classSignatures.matches(key, live))
+			return false;
+		live = MethodTableFingerprint.of(clazz);
+		if (!classSignatures.matches(key, live))
+			return true;
+		liveSignatures.put(clazz, live);
+		return false;
 	}
 	
-	private static String getMethodString(CtMethod method) {
-		try {
-			return Modifier.toString(method.getModifiers()) + " " + method.getReturnType().getName() + " "
-					+ method.getName() + getParams(method.getParameterTypes()) + ";";
-		} catch (NotFoundException e) {
-			throw new RuntimeException(e);
-		}
+	/**
+	 * Fingerprint of the last redefinition of the class seen, or null if it has not been redefined.
+	 */
+	public static MethodTableFingerprint getRedefinedFingerprint(String className) {
+		return classSignatures.get(MethodTableFingerprint.hash(className));
 	}
 	
-	private static String getParams(CtClass[] parameterTypes) {
-		StringBuilder strB = new StringBuilder("(");
-		for (CtClass ctClass : parameterTypes) {
-			strB.append(ctClass.getName());
-			strB.append(", ");
-		}
-		strB.append(")");
-		return strB.toString();
+	/**
+	 * Fingerprint of the latest definition of the class: the last redefinition seen, or the loaded class if it has not
+	 * been redefined.
+	 */
+	public static MethodTableFingerprint getFingerprint(Class<?> clazz) {
+		MethodTableFingerprint fingerprint = classSignatures.get(MethodTableFingerprint.hash(clazz.getName()));
+		if (fingerprint != null)
+			return fingerprint;
+		fingerprint = liveSignatures.get(clazz);
+		return fingerprint != null ? fingerprint : MethodTableFingerprint.of(clazz);
 	}
 	
-	public static boolean hasClassChanged(Class<?> clazz) {
-		String classString = classSignatures.get(clazz.getName());
-		if (classString == null)
-			return false;
-		return !getSignature(clazz).equals(classString);
+	/**
+	 * Checks that all the loaded supertypes of the class, the superclasses and the interfaces of the class and of its
+	 * supertypes, are the latest redefinitions seen, so that reflection on them sees their changes.
+	 */
+	public static boolean areSupertypesRedefined(Class<?> clazz) {
+		Set<Class<?>> seen = new HashSet<>();
+		Deque<Class<?>> pending = new ArrayDeque<>();
+		pending.add(clazz);
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.poll();
+			Class<?> superclass = type.getSuperclass();
+			if (superclass != null && seen.add(superclass))
+				pending.add(superclass);
+			for (Class<?> intf : type.getInterfaces()) {
+				if (seen.add(intf))
+					pending.add(intf);
+			}
+		}
+		for (Class<?> supertype : seen) {
+			if (hasClassChanged(supertype))
+				return false;
+		}
+		return true;
 	}
 	
 	public static boolean hasSuperClassOrInterfaceChanged(Class<?> clazz1) {
+		if (ProxyIndex.isIndexed(clazz1))
+			return ProxyIndex.isChanged(clazz1);
+		// proxy loaded before the agent or not recognized at load time
 		Class<?> superclass = clazz1.getSuperclass();
 		if (superclass != null && ClassfileBufferSigantureTransformer.hasClassChanged(superclass))
 			return true;
@@ -82,27 +133,4 @@ public class ClassfileBufferSigantureTransformer implements ClassFileTransformer
 		}
 		return false;
 	}
-	
-	private static String getSignature(Class<?> cc) {
-		StringBuilder strBuilder = new StringBuilder();
-		for (Method method : cc.getDeclaredMethods()) {
-			strBuilder.append(getMethodString(method));
-		}
-		return strBuilder.toString();
-	}
-	
-	private static Object getMethodString(Method method) {
-		return Modifier.toString(method.getModifiers()) + " " + method.getReturnType().getName() + " "
-				+ method.getName() + getParams(method.getParameterTypes()) + ";";
-	}
-	
-	private static String getParams(Class<?>[] parameterTypes) {
-		StringBuilder strB = new StringBuilder("(");
-		for (Class<?> ctClass : parameterTypes) {
-			strB.append(ctClass.getName());
-			strB.append(", ");
-		}
-		strB.append(")");
-		return strB.toString();
-	}
 }
@@ -0,0 +1,308 @@
+package io.github.proxyhotswap;
+
+/**
+ * Reads single items straight from a class file byte array without building a javassist CtClass or registering
+ * anything in a ClassPool. Meant as a cheap filter that runs on every class load before any full parse is done. None
+ * of the methods allocate.
+ * 
+ * See JVMS section 4 for the layout of the class file.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ClassfileScanner {
+	private static final int MAGIC = 0xCAFEBABE;
+	/* u4 magic, u2 minor_version, u2 major_version, u2 constant_pool_count */
+	private static final int CONSTANT_POOL_OFFSET = 10;
+	
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELD = 9;
+	private static final int CONSTANT_METHOD = 10;
+	private static final int CONSTANT_INTERFACEMETHOD = 11;
+	private static final int CONSTANT_NAMEANDTYPE = 12;
+	private static final int CONSTANT_METHODHANDLE = 15;
+	private static final int CONSTANT_METHODTYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKEDYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+	
+	private ClassfileScanner() {
+	}
+	
+	/**
+	 * Checks if the class directly implements an interface with the given simple name. Package names are ignored, so
+	 * repackaged libraries are matched too. The simple name must be ASCII.
+	 * 
+	 * The constant pool is first scanned for any UTF8 entry with that simple name. Only if one is found, the interface
+	 * table is resolved, so the usual case is a single linear pass over the constant pool.
+	 */
+	public static boolean hasInterface(byte[] classfileBuffer, String simpleName) {
+		checkMagic(classfileBuffer);
+		int count = readU2(classfileBuffer, CONSTANT_POOL_OFFSET - 2);
+		boolean mentioned = false;
+		int offset = CONSTANT_POOL_OFFSET;
+		for (int i = 1; i < count; i++) {
+			int tag = classfileBuffer[offset];
+			if (!mentioned && tag == CONSTANT_UTF8) {
+				mentioned = isSimpleName(classfileBuffer, offset, simpleName);
+			} else if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+				// 8 byte constants take up two slots in the constant pool
+				i++;
+			}
+			offset = skipEntry(classfileBuffer, offset);
+		}
+		if (!mentioned)
+			return false;
+		
+		// u2 access_flags, u2 this_class, u2 super_class
+		int interfacesOffset = offset + 6;
+		int interfacesCount = readU2(classfileBuffer, interfacesOffset);
+		for (int i = 0; i < interfacesCount; i++) {
+			int classEntry = getEntryOffset(classfileBuffer, readU2(classfileBuffer, interfacesOffset + 2 + 2 * i));
+			int nameEntry = getEntryOffset(classfileBuffer, readU2(classfileBuffer, classEntry + 1));
+			if (isSimpleName(classfileBuffer, nameEntry, simpleName))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if the direct superclass of the class has the given name, in internal form (with slashes). The name must
+	 * be ASCII.
+	 */
+	public static boolean hasSuperclass(byte[] classfileBuffer, String internalName) {
+		// u2 access_flags, u2 this_class, u2 super_class
+		int superclass = readU2(classfileBuffer, skipConstantPool(classfileBuffer) + 4);
+		if (superclass == 0)
+			return false;
+		int nameEntry = getEntryOffset(classfileBuffer,
+				readU2(classfileBuffer, getEntryOffset(classfileBuffer, superclass) + 1));
+		int length = readU2(classfileBuffer, nameEntry + 1);
+		if (length != internalName.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (classfileBuffer[nameEntry + 3 + i] != internalName.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the access_flags of the class.
+	 */
+	public static int getAccessFlags(byte[] classfileBuffer) {
+		return readU2(classfileBuffer, skipConstantPool(classfileBuffer));
+	}
+	
+	/**
+	 * Returns the name of the class, in internal form (with slashes). Only the returned String is allocated.
+	 */
+	public static String getClassName(byte[] classfileBuffer) {
+		// u2 access_flags, u2 this_class
+		int thisClass = readU2(classfileBuffer, skipConstantPool(classfileBuffer) + 2);
+		return getUtf8(classfileBuffer,
+				getEntryOffset(classfileBuffer, readU2(classfileBuffer, getEntryOffset(classfileBuffer, thisClass) + 1)));
+	}
+	
+	/**
+	 * Returns the names of the superclass and the interfaces of the class, in internal form (with slashes). The
+	 * superclass is the first element, except for java/lang/Object, which has no superclass.
+	 */
+	public static String[] getSupertypeNames(byte[] classfileBuffer) {
+		int[] entryOffsets = getEntryOffsets(classfileBuffer);
+		// u2 access_flags, u2 this_class, u2 super_class
+		int superclass = readU2(classfileBuffer, entryOffsets[0] + 4);
+		int interfacesOffset = entryOffsets[0] + 6;
+		int interfacesCount = readU2(classfileBuffer, interfacesOffset);
+		int first = superclass == 0 ? 0 : 1;
+		String[] names = new String[first + interfacesCount];
+		if (superclass != 0)
+			names[0] = getClassName(classfileBuffer, entryOffsets, superclass);
+		for (int i = 0; i < interfacesCount; i++) {
+			names[first + i] = getClassName(classfileBuffer, entryOffsets,
+					readU2(classfileBuffer, interfacesOffset + 2 + 2 * i));
+		}
+		return names;
+	}
+	
+	private static String getClassName(byte[] classfileBuffer, int[] entryOffsets, int classIndex) {
+		return getUtf8(classfileBuffer, entryOffsets[readU2(classfileBuffer, entryOffsets[classIndex] + 1)]);
+	}
+	
+	/**
+	 * Decodes the modified UTF-8 of the CONSTANT_Utf8 entry at the given offset.
+	 */
+	static String getUtf8(byte[] classfileBuffer, int utf8Offset) {
+		int end = utf8Offset + 3 + readU2(classfileBuffer, utf8Offset + 1);
+		char[] chars = new char[end - utf8Offset - 3];
+		int length = 0;
+		for (int i = utf8Offset + 3; i < end;) {
+			int c = classfileBuffer[i++] & 0xFF;
+			if (c >= 0xE0) {
+				c = ((c & 0x0F) << 12) | ((classfileBuffer[i++] & 0x3F) << 6) | (classfileBuffer[i++] & 0x3F);
+			} else if (c >= 0xC0) {
+				c = ((c & 0x1F) << 6) | (classfileBuffer[i++] & 0x3F);
+			}
+			chars[length++] = (char) c;
+		}
+		return new String(chars, 0, length);
+	}
+	
+	/**
+	 * Returns the offsets of all constant pool entries by their index. Element 0, which is not a valid constant pool
+	 * index, holds the offset of the first byte after the constant pool.
+	 */
+	static int[] getEntryOffsets(byte[] classfileBuffer) {
+		checkMagic(classfileBuffer);
+		int count = readU2(classfileBuffer, CONSTANT_POOL_OFFSET - 2);
+		int[] offsets = new int[count];
+		int offset = CONSTANT_POOL_OFFSET;
+		for (int i = 1; i < count; i++) {
+			offsets[i] = offset;
+			int tag = classfileBuffer[offset];
+			if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE)
+				i++;
+			offset = skipEntry(classfileBuffer, offset);
+		}
+		offsets[0] = offset;
+		return offsets;
+	}
+	
+	/**
+	 * Returns the offset of the first byte after the constant pool, without allocating.
+	 */
+	static int skipConstantPool(byte[] classfileBuffer) {
+		checkMagic(classfileBuffer);
+		int count = readU2(classfileBuffer, CONSTANT_POOL_OFFSET - 2);
+		int offset = CONSTANT_POOL_OFFSET;
+		for (int i = 1; i < count; i++) {
+			int tag = classfileBuffer[offset];
+			if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE)
+				i++;
+			offset = skipEntry(classfileBuffer, offset);
+		}
+		return offset;
+	}
+	
+	/**
+	 * Returns the offset of the methods_count item.
+	 */
+	static int getMethodsOffset(byte[] classfileBuffer, int[] entryOffsets) {
+		// u2 access_flags, u2 this_class, u2 super_class
+		int offset = entryOffsets[0] + 6;
+		// u2 interfaces_count, u2 interfaces[interfaces_count]
+		offset += 2 + 2 * readU2(classfileBuffer, offset);
+		return skipMembers(classfileBuffer, offset);
+	}
+	
+	/**
+	 * Skips a fields or methods table, starting from its count item.
+	 */
+	static int skipMembers(byte[] classfileBuffer, int offset) {
+		int count = readU2(classfileBuffer, offset);
+		offset += 2;
+		for (int i = 0; i < count; i++) {
+			// u2 access_flags, u2 name_index, u2 descriptor_index
+			offset = skipAttributes(classfileBuffer, offset + 6);
+		}
+		return offset;
+	}
+	
+	/**
+	 * Skips an attributes table, starting from its count item.
+	 */
+	static int skipAttributes(byte[] classfileBuffer, int offset) {
+		int count = readU2(classfileBuffer, offset);
+		offset += 2;
+		for (int i = 0; i < count; i++) {
+			// u2 attribute_name_index, u4 attribute_length
+			offset += 6 + readInt(classfileBuffer, offset + 2);
+		}
+		return offset;
+	}
+	
+	/**
+	 * Returns the offset of the constant pool entry with the given index. Walks the constant pool from the start, so
+	 * it should only be used on the rare paths.
+	 */
+	static int getEntryOffset(byte[] classfileBuffer, int index) {
+		int offset = CONSTANT_POOL_OFFSET;
+		for (int i = 1; i < index; i++) {
+			int tag = classfileBuffer[offset];
+			if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE)
+				i++;
+			offset = skipEntry(classfileBuffer, offset);
+		}
+		return offset;
+	}
+	
+	/**
+	 * Returns the offset of the first byte after the constant pool entry starting at the given offset.
+	 */
+	static int skipEntry(byte[] classfileBuffer, int offset) {
+		int tag = classfileBuffer[offset];
+		switch (tag) {
+			case CONSTANT_UTF8:
+				return offset + 3 + readU2(classfileBuffer, offset + 1);
+			case CONSTANT_CLASS:
+			case CONSTANT_STRING:
+			case CONSTANT_METHODTYPE:
+			case CONSTANT_MODULE:
+			case CONSTANT_PACKAGE:
+				return offset + 3;
+			case CONSTANT_METHODHANDLE:
+				return offset + 4;
+			case CONSTANT_INTEGER:
+			case CONSTANT_FLOAT:
+			case CONSTANT_FIELD:
+			case CONSTANT_METHOD:
+			case CONSTANT_INTERFACEMETHOD:
+			case CONSTANT_NAMEANDTYPE:
+			case CONSTANT_DYNAMIC:
+			case CONSTANT_INVOKEDYNAMIC:
+				return offset + 5;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				return offset + 9;
+			default:
+				throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at offset " + offset);
+		}
+	}
+	
+	/**
+	 * Checks if the UTF8 entry at the given offset is an internal class name (or a plain name) ending with the given
+	 * simple name.
+	 */
+	private static boolean isSimpleName(byte[] classfileBuffer, int utf8Offset, String simpleName) {
+		int length = readU2(classfileBuffer, utf8Offset + 1);
+		int nameLength = simpleName.length();
+		if (length < nameLength || (length > nameLength && classfileBuffer[utf8Offset + 2 + length - nameLength] != '/'))
+			return false;
+		int start = utf8Offset + 3 + length - nameLength;
+		for (int i = 0; i < nameLength; i++) {
+			if (classfileBuffer[start + i] != simpleName.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	private static void checkMagic(byte[] classfileBuffer) {
+		if (classfileBuffer.length < CONSTANT_POOL_OFFSET || readInt(classfileBuffer, 0) != MAGIC)
+			throw new IllegalArgumentException("Not a class file");
+	}
+	
+	static int readU2(byte[] classfileBuffer, int offset) {
+		return ((classfileBuffer[offset] & 0xFF) << 8) | (classfileBuffer[offset + 1] & 0xFF);
+	}
+	
+	static int readInt(byte[] classfileBuffer, int offset) {
+		return (readU2(classfileBuffer, offset) << 16) | readU2(classfileBuffer, offset + 2);
+	}
+}
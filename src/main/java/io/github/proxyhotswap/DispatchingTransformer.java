@@ -0,0 +1,58 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+
+/**
+ * The only transformer registered by the agent. Passes each event to its handlers in order through a shared ClassView,
+ * so the handlers do not parse the same class file again. A handler that returns a new class file gets the following
+ * handlers a new view, the same way the JVM chains separately registered transformers.
+ * 
+ * Loaded classes rejected by the ClassFilter are skipped before anything is parsed. Redefinitions always reach the
+ * handlers, they need to see the changes of all supertypes.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class DispatchingTransformer implements ClassFileTransformer {
+	private static final Timer transformTimer = Metrics.timer("transform");
+	
+	private final ClassFilter classFilter;
+	private final ClassViewTransformer[] handlers;
+	
+	public DispatchingTransformer(ClassViewTransformer... handlers) {
+		this(new ClassFilter(), handlers);
+	}
+	
+	public DispatchingTransformer(ClassFilter classFilter, ClassViewTransformer... handlers) {
+		this.classFilter = classFilter;
+		this.handlers = handlers.clone();
+	}
+	
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+		if (classBeingRedefined == null && !classFilter.accepts(loader, className))
+			return null;
+		long start = System.nanoTime();
+		ClassView classView = new ClassView(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+		byte[] result = null;
+		for (ClassViewTransformer handler : handlers) {
+			try {
+				byte[] transformed = handler.transform(classView);
+				if (transformed != null) {
+					result = transformed;
+					classView = new ClassView(loader, className, classBeingRedefined, protectionDomain, transformed);
+				}
+			} catch (IllegalClassFormatException | RuntimeException e) {
+				// handlers log their own errors, the JVM would also go on with the next transformer
+			}
+		}
+		transformTimer.stop(start);
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+package io.github.proxyhotswap;
+
+/**
+ * Map from a long key to a MethodTableFingerprint, stored in primitive arrays with open addressing. Keeps a few longs
+ * per entry instead of boxed keys, map entries and fingerprint objects.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class FingerprintMap {
+	/* key 0 marks a free slot, a real key 0 is stored as this */
+	private static final long ZERO_KEY = 0x5bd1e9955bd1e995L;
+	
+	private long[] keys;
+	private long[] highs;
+	private long[] lows;
+	private int size;
+	
+	public FingerprintMap() {
+		this(64);
+	}
+	
+	public FingerprintMap(int capacity) {
+		int tableSize = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+		keys = new long[tableSize];
+		highs = new long[tableSize];
+		lows = new long[tableSize];
+	}
+	
+	public synchronized void put(long key, MethodTableFingerprint fingerprint) {
+		key = key == 0 ? ZERO_KEY : key;
+		int slot = findSlot(keys, key);
+		if (keys[slot] == 0) {
+			if ((size + 1) * 2 > keys.length) {
+				resize();
+				slot = findSlot(keys, key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		highs[slot] = fingerprint.getHigh();
+		lows[slot] = fingerprint.getLow();
+	}
+	
+	public synchronized boolean containsKey(long key) {
+		key = key == 0 ? ZERO_KEY : key;
+		return keys[findSlot(keys, key)] != 0;
+	}
+	
+	/**
+	 * Checks if the given fingerprint is stored under the key, without creating a fingerprint object for the stored
+	 * value.
+	 */
+	public synchronized boolean matches(long key, MethodTableFingerprint fingerprint) {
+		key = key == 0 ? ZERO_KEY : key;
+		int slot = findSlot(keys, key);
+		return keys[slot] != 0 && highs[slot] == fingerprint.getHigh() && lows[slot] == fingerprint.getLow();
+	}
+	
+	public synchronized MethodTableFingerprint get(long key) {
+		key = key == 0 ? ZERO_KEY : key;
+		int slot = findSlot(keys, key);
+		if (keys[slot] == 0)
+			return null;
+		return new MethodTableFingerprint(highs[slot], lows[slot]);
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the slot holding the key or the free slot where it should be put. Linear probing, the table is never
+	 * more than half full.
+	 */
+	private static int findSlot(long[] keys, long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void resize() {
+		long[] oldKeys = keys;
+		long[] oldHighs = highs;
+		long[] oldLows = lows;
+		keys = new long[oldKeys.length * 2];
+		highs = new long[keys.length];
+		lows = new long[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = findSlot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				highs[slot] = oldHighs[i];
+				lows[slot] = oldLows[i];
+			}
+		}
+	}
+}
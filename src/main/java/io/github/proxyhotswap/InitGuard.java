@@ -0,0 +1,71 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.javassist.CannotCompileException;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.javassist.CtMethod;
+import io.github.proxyhotswap.javassist.bytecode.BadBytecode;
+import io.github.proxyhotswap.javassist.bytecode.Bytecode;
+import io.github.proxyhotswap.javassist.bytecode.CodeAttribute;
+import io.github.proxyhotswap.javassist.bytecode.MethodInfo;
+import io.github.proxyhotswap.javassist.compiler.CompileError;
+import io.github.proxyhotswap.javassist.compiler.Javac;
+
+/**
+ * The "if (!initField) { initCall }" statement put at the start of the proxy methods. It is compiled once per class
+ * and the bytecode is copied into each method, instead of compiling the same source with CtMethod.insertBefore for
+ * every method.
+ * 
+ * The guard only uses this and the constant pool of the class, so the same bytes are valid in every instance method
+ * of the class. Its branch jumps to the end of the guard, which becomes the first instruction of the method.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class InitGuard {
+	private final CtClass cc;
+	private final byte[] code;
+	private final int maxStack;
+	private final int maxLocals;
+	
+	private InitGuard(CtClass cc, Bytecode bytecode) {
+		this.cc = cc;
+		this.code = bytecode.get();
+		this.maxStack = bytecode.getMaxStack();
+		this.maxLocals = bytecode.getMaxLocals();
+	}
+	
+	public static InitGuard compile(CtClass cc, String initFieldName, String initCall) throws CannotCompileException {
+		try {
+			Javac javac = new Javac(cc);
+			javac.recordParams(new CtClass[0], false);
+			javac.compileStmnt("if(!" + initFieldName + "){" + initCall + "}");
+			Bytecode bytecode = javac.getBytecode();
+			if (bytecode.getExceptionTable().size() > 0)
+				throw new CannotCompileException("init call must not contain try blocks: " + initCall);
+			return new InitGuard(cc, bytecode);
+		} catch (CompileError e) {
+			throw new CannotCompileException(e);
+		}
+	}
+	
+	/**
+	 * Inserts the guard before the first instruction of an instance method of the class, the same way
+	 * CtMethod.insertBefore does.
+	 */
+	public void insertInto(CtMethod method) throws CannotCompileException {
+		MethodInfo methodInfo = method.getMethodInfo();
+		CodeAttribute ca = methodInfo.getCodeAttribute();
+		if (ca == null)
+			throw new CannotCompileException("no method body");
+		if (maxStack > ca.getMaxStack())
+			ca.setMaxStack(maxStack);
+		if (maxLocals > ca.getMaxLocals())
+			ca.setMaxLocals(maxLocals);
+		try {
+			ca.iterator().insertEx(code);
+			methodInfo.rebuildStackMapIf6(cc.getClassPool(), cc.getClassFile2());
+		} catch (BadBytecode e) {
+			throw new CannotCompileException(e);
+		}
+	}
+}
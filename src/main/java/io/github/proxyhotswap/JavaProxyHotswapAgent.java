@@ -3,6 +3,7 @@ package io.github.proxyhotswap;
 import io.github.proxyhotswap.cglib.EnhancerTransformer;
 import io.github.proxyhotswap.cglib.GeneratorSpyTransformer;
 import io.github.proxyhotswap.java.JavassistSimpleJavaProxyTransformer;
+import io.github.proxyhotswap.metrics.Metrics;
 
 import java.lang.instrument.Instrumentation;
 
@@ -14,10 +15,11 @@ public class JavaProxyHotswapAgent {
 	public static Instrumentation INSTRUMENTATION;
 	
 	public static void premain(String agentArgs, Instrumentation inst) {
-		inst.addTransformer(new ClassfileBufferSigantureTransformer());
-		inst.addTransformer(new JavassistSimpleJavaProxyTransformer());
-		inst.addTransformer(new GeneratorSpyTransformer());
-		inst.addTransformer(new EnhancerTransformer(inst));
+		AgentOptions options = AgentOptions.parse(agentArgs);
+		inst.addTransformer(new DispatchingTransformer(options.getClassFilter(),
+				new ClassfileBufferSigantureTransformer(), new JavassistSimpleJavaProxyTransformer(),
+				new GeneratorSpyTransformer(), new EnhancerTransformer(inst)));
 		INSTRUMENTATION = inst;
+		Metrics.install();
 	}
 }
@@ -0,0 +1,197 @@
+package io.github.proxyhotswap;
+
+import java.lang.reflect.Method;
+
+/**
+ * 128-bit hash of the declared methods of a class that proxies can override or implement: access flags, name and
+ * descriptor of each non-static, non-private method. Static and private methods, constructors, static initializers and
+ * method bodies are not part of it, changing them does not change the generated proxies. The methods are combined in
+ * an order independent way, so the hash of a class file equals the hash of the loaded class defined from it.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public final class MethodTableFingerprint {
+	/* access flags that can be seen through reflection */
+	private static final int MODIFIERS = java.lang.reflect.Modifier.methodModifiers();
+	/* methods with these flags are never proxied */
+	private static final int NOT_PROXIED = java.lang.reflect.Modifier.STATIC | java.lang.reflect.Modifier.PRIVATE;
+	
+	private static final long HIGH_BASIS = 0xcbf29ce484222325L;
+	private static final long HIGH_PRIME = 0x100000001b3L;
+	private static final long LOW_BASIS = 0x9e3779b97f4a7c15L;
+	private static final long LOW_PRIME = 0xc6a4a7935bd1e995L;
+	
+	private final long high;
+	private final long low;
+	
+	public MethodTableFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+	
+	/**
+	 * Computes the fingerprint from the method_info table of the class file.
+	 */
+	public static MethodTableFingerprint of(byte[] classfileBuffer) {
+		int[] entryOffsets = ClassfileScanner.getEntryOffsets(classfileBuffer);
+		int offset = ClassfileScanner.getMethodsOffset(classfileBuffer, entryOffsets);
+		int count = ClassfileScanner.readU2(classfileBuffer, offset);
+		offset += 2;
+		long high = 0;
+		long low = 0;
+		for (int i = 0; i < count; i++) {
+			int accessFlags = ClassfileScanner.readU2(classfileBuffer, offset) & MODIFIERS;
+			int name = entryOffsets[ClassfileScanner.readU2(classfileBuffer, offset + 2)];
+			int descriptor = entryOffsets[ClassfileScanner.readU2(classfileBuffer, offset + 4)];
+			// skip <init> and <clinit>, reflection does not return them as methods
+			if (classfileBuffer[name + 3] != '<' && (accessFlags & NOT_PROXIED) == 0) {
+				long h = hashUtf8(hashUtf8(mix(HIGH_BASIS, accessFlags, HIGH_PRIME), classfileBuffer, name, HIGH_PRIME),
+						classfileBuffer, descriptor, HIGH_PRIME);
+				long l = hashUtf8(hashUtf8(mix(LOW_BASIS, accessFlags, LOW_PRIME), classfileBuffer, name, LOW_PRIME),
+						classfileBuffer, descriptor, LOW_PRIME);
+				high += finish(h);
+				low += finish(l);
+			}
+			// u2 access_flags, u2 name_index, u2 descriptor_index
+			offset = ClassfileScanner.skipAttributes(classfileBuffer, offset + 6);
+		}
+		return new MethodTableFingerprint(high, low);
+	}
+	
+	/**
+	 * Computes the fingerprint of the loaded class through reflection.
+	 */
+	public static MethodTableFingerprint of(Class<?> clazz) {
+		long high = 0;
+		long low = 0;
+		for (Method method : clazz.getDeclaredMethods()) {
+			int accessFlags = method.getModifiers() & MODIFIERS;
+			if ((accessFlags & NOT_PROXIED) != 0)
+				continue;
+			String descriptor = getDescriptor(method);
+			high += finish(hash(hash(mix(HIGH_BASIS, accessFlags, HIGH_PRIME), method.getName(), HIGH_PRIME),
+					descriptor, HIGH_PRIME));
+			low += finish(hash(hash(mix(LOW_BASIS, accessFlags, LOW_PRIME), method.getName(), LOW_PRIME), descriptor,
+					LOW_PRIME));
+		}
+		return new MethodTableFingerprint(high, low);
+	}
+	
+	/**
+	 * 64-bit hash of a string, for use as a primitive map key.
+	 */
+	public static long hash(String s) {
+		return finish(hash(HIGH_BASIS, s, HIGH_PRIME));
+	}
+	
+	public long getHigh() {
+		return high;
+	}
+	
+	public long getLow() {
+		return low;
+	}
+	
+	private static long mix(long h, int value, long prime) {
+		return (h ^ value) * prime;
+	}
+	
+	private static long hash(long h, String s, long prime) {
+		for (int i = 0; i < s.length(); i++) {
+			h = mix(h, s.charAt(i), prime);
+		}
+		return h;
+	}
+	
+	/**
+	 * Hashes the chars of the CONSTANT_Utf8 entry at the given offset, decoding the modified UTF-8 on the fly, so that
+	 * it gives the same result as hashing the String.
+	 */
+	private static long hashUtf8(long h, byte[] classfileBuffer, int utf8Offset, long prime) {
+		int end = utf8Offset + 3 + ClassfileScanner.readU2(classfileBuffer, utf8Offset + 1);
+		for (int i = utf8Offset + 3; i < end;) {
+			int c = classfileBuffer[i++] & 0xFF;
+			if (c >= 0xE0) {
+				c = ((c & 0x0F) << 12) | ((classfileBuffer[i++] & 0x3F) << 6) | (classfileBuffer[i++] & 0x3F);
+			} else if (c >= 0xC0) {
+				c = ((c & 0x1F) << 6) | (classfileBuffer[i++] & 0x3F);
+			}
+			h = mix(h, c, prime);
+		}
+		return h;
+	}
+	
+	/**
+	 * Final avalanche step, so that summing up the hashes of single methods does not cancel out their bits.
+	 */
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	private static String getDescriptor(Method method) {
+		StringBuilder desc = new StringBuilder("(");
+		for (Class<?> type : method.getParameterTypes()) {
+			appendDescriptor(desc, type);
+		}
+		desc.append(')');
+		appendDescriptor(desc, method.getReturnType());
+		return desc.toString();
+	}
+	
+	private static void appendDescriptor(StringBuilder desc, Class<?> type) {
+		if (type.isPrimitive()) {
+			desc.append(getPrimitiveDescriptor(type));
+		} else if (type.isArray()) {
+			// Class.getName() returns the descriptor for arrays, with dots instead of slashes
+			desc.append(type.getName().replace('.', '/'));
+		} else {
+			desc.append('L').append(type.getName().replace('.', '/')).append(';');
+		}
+	}
+	
+	private static char getPrimitiveDescriptor(Class<?> type) {
+		if (type == int.class)
+			return 'I';
+		if (type == long.class)
+			return 'J';
+		if (type == boolean.class)
+			return 'Z';
+		if (type == byte.class)
+			return 'B';
+		if (type == char.class)
+			return 'C';
+		if (type == short.class)
+			return 'S';
+		if (type == float.class)
+			return 'F';
+		if (type == double.class)
+			return 'D';
+		return 'V';
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof MethodTableFingerprint))
+			return false;
+		MethodTableFingerprint other = (MethodTableFingerprint) obj;
+		return high == other.high && low == other.low;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+}
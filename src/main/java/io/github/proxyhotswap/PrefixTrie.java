@@ -0,0 +1,75 @@
+package io.github.proxyhotswap;
+
+/**
+ * Character trie of string prefixes, each with a value. Looks up the value of the longest prefix of a string in one
+ * pass over the string, without allocating.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class PrefixTrie {
+	public static final int NO_MATCH = -1;
+	
+	private final Node root = new Node();
+	
+	/**
+	 * Adds the prefix, replacing the value of an equal prefix.
+	 */
+	public void put(String prefix, int value) {
+		Node node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			node = node.getOrAddChild(prefix.charAt(i));
+		}
+		node.value = value;
+	}
+	
+	/**
+	 * Returns the value of the longest prefix of the string or NO_MATCH.
+	 */
+	public int match(String s) {
+		Node node = root;
+		int value = node.value;
+		for (int i = 0; i < s.length(); i++) {
+			node = node.getChild(s.charAt(i));
+			if (node == null)
+				break;
+			if (node.value != NO_MATCH)
+				value = node.value;
+		}
+		return value;
+	}
+	
+	public boolean isEmpty() {
+		return root.keys.length == 0 && root.value == NO_MATCH;
+	}
+	
+	private static class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		private int value = NO_MATCH;
+		
+		private Node getChild(char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c)
+					return children[i];
+			}
+			return null;
+		}
+		
+		private Node getOrAddChild(char c) {
+			Node child = getChild(c);
+			if (child == null) {
+				int length = keys.length;
+				char[] newKeys = new char[length + 1];
+				Node[] newChildren = new Node[length + 1];
+				System.arraycopy(keys, 0, newKeys, 0, length);
+				System.arraycopy(children, 0, newChildren, 0, length);
+				newKeys[length] = c;
+				child = newChildren[length] = new Node();
+				keys = newKeys;
+				children = newChildren;
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Optional on-disk cache of generated proxy classes. The key is the proxy name together with the names and class file
+ * digests of all of its supertypes, so switching an interface back to an earlier version reuses the class generated for
+ * that version, including the added init calls.
+ * 
+ * The whole class file is digested, not just the method table fingerprint: the generators also read the throws clauses
+ * and, for cglib, the constructors of the superclass. A redefined supertype is digested from the bytes of its last
+ * redefinition, the others from their class file resource. A class without a class file resource is described through
+ * reflection instead.
+ * 
+ * Enabled with -Dio.github.proxyhotswap.cache=true, the files are kept in io.github.proxyhotswap.cacheDir, by default
+ * proxyhotswap-cache under java.io.tmpdir.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyBytecodeCache {
+	/* part of the key, change it when the generated code changes */
+	private static final String FORMAT_VERSION = "3";
+	private static final boolean ENABLED = Boolean.getBoolean("io.github.proxyhotswap.cache");
+	private static final Path DIRECTORY = Paths.get(System.getProperty("io.github.proxyhotswap.cacheDir",
+			Paths.get(System.getProperty("java.io.tmpdir"), "proxyhotswap-cache").toString()));
+	
+	private static final Counter hits = Metrics.counter("cache.hits");
+	private static final Counter misses = Metrics.counter("cache.misses");
+	
+	/* digests of the latest redefinitions, by class name */
+	private static final ConcurrentHashMap<String, String> redefinedDigests = new ConcurrentHashMap<>();
+	/* digests of the class files the classes were loaded from */
+	private static final ClassValue<String> loadedDigests = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			return getLoadedDigest(type);
+		}
+	};
+	
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+	
+	/**
+	 * Key of the proxy class generated from the current definitions of the supertypes of the proxy.
+	 * 
+	 * @param generator
+	 *            the generator and the settings that change its output
+	 */
+	public static String getKey(String generator, Class<?> proxy) {
+		StringBuilder key = new StringBuilder(FORMAT_VERSION).append('|').append(generator).append('|')
+				.append(proxy.getName());
+		for (Class<?> supertype : getSupertypes(proxy)) {
+			key.append('|').append(supertype.getName()).append('=').append(getDigest(supertype));
+		}
+		return toHex(sha256(key.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Records the class file of a redefinition, the keys of its subtypes are computed from it from now on.
+	 */
+	public static void putDefinition(String className, byte[] classfileBuffer) {
+		redefinedDigests.put(className, toHex(sha256(classfileBuffer)));
+	}
+	
+	private static String getDigest(Class<?> clazz) {
+		String digest = redefinedDigests.get(clazz.getName());
+		return digest != null ? digest : loadedDigests.get(clazz);
+	}
+	
+	private static String getLoadedDigest(Class<?> clazz) {
+		String resource = '/' + clazz.getName().replace('.', '/') + ".class";
+		try (InputStream in = clazz.getResourceAsStream(resource)) {
+			if (in != null) {
+				MessageDigest digest = newDigest();
+				byte[] buffer = new byte[8192];
+				for (int read; (read = in.read(buffer)) != -1;) {
+					digest.update(buffer, 0, read);
+				}
+				return toHex(digest.digest());
+			}
+		} catch (IOException e) {
+			TransformationUtils.logError(e);
+		}
+		// generated at runtime, the declarations include the throws clauses
+		List<String> declarations = new ArrayList<>();
+		for (Method method : clazz.getDeclaredMethods()) {
+			declarations.add(method.toString());
+		}
+		for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+			declarations.add(constructor.toString());
+		}
+		Collections.sort(declarations);
+		return toHex(sha256((clazz.getModifiers() + declarations.toString()).getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Returns the cached class or null.
+	 */
+	public static byte[] get(String key) {
+		try {
+			// not mapped, a mapping is held until it is garbage collected and on Windows it blocks the replacing
+			// move in put
+			byte[] bytes = Files.readAllBytes(DIRECTORY.resolve(key + ".class"));
+			hits.increment();
+			return bytes;
+		} catch (NoSuchFileException e) {
+			misses.increment();
+			return null;
+		} catch (IOException e) {
+			TransformationUtils.logError(e);
+			return null;
+		}
+	}
+	
+	public static void put(String key, byte[] bytes) {
+		try {
+			Files.createDirectories(DIRECTORY);
+			// written to a temporary file first, a concurrent reader never sees a partial class
+			Path tmp = Files.createTempFile(DIRECTORY, key, ".tmp");
+			Files.write(tmp, bytes);
+			Files.move(tmp, DIRECTORY.resolve(key + ".class"), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			TransformationUtils.logError(e);
+		}
+	}
+	
+	/**
+	 * All superclasses and interfaces of the class, in a stable order, except java.lang.Object.
+	 */
+	private static List<Class<?>> getSupertypes(Class<?> clazz) {
+		List<Class<?>> supertypes = new ArrayList<>();
+		addSupertypes(clazz, supertypes, new HashSet<Class<?>>());
+		return supertypes;
+	}
+	
+	private static void addSupertypes(Class<?> clazz, List<Class<?>> supertypes, Set<Class<?>> visited) {
+		Class<?> superclass = clazz.getSuperclass();
+		if (superclass != null && superclass != Object.class && visited.add(superclass)) {
+			supertypes.add(superclass);
+			addSupertypes(superclass, supertypes, visited);
+		}
+		for (Class<?> iface : clazz.getInterfaces()) {
+			if (visited.add(iface)) {
+				supertypes.add(iface);
+				addSupertypes(iface, supertypes, visited);
+			}
+		}
+	}
+	
+	private static byte[] sha256(byte[] bytes) {
+		return newDigest().digest(bytes);
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
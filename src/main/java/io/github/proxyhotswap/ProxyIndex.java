@@ -0,0 +1,212 @@
+package io.github.proxyhotswap;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index from interfaces and superclasses to the proxy classes generated for them. Proxies are registered when they are
+ * loaded, so when a supertype is redefined, its proxies are marked as changed at once and a proxy redefinition only
+ * needs to look up its own mark instead of checking all of its supertypes.
+ * 
+ * Class loaders of the proxies are only weakly referenced, entries of unloaded proxies are dropped.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyIndex {
+	/* unloaded proxies are swept out after this many registrations */
+	private static final int SWEEP_INTERVAL = 1024;
+	
+	/* proxies by the names of their superclass and interfaces */
+	private static ConcurrentHashMap<String, Set<ProxyEntry>> dependents = new ConcurrentHashMap<>();
+	/* proxies by their own name */
+	private static ConcurrentHashMap<String, Set<ProxyEntry>> proxies = new ConcurrentHashMap<>();
+	private static AtomicInteger registrations = new AtomicInteger();
+	/* incremented whenever proxies are marked as changed */
+	private static AtomicLong changeCount = new AtomicLong();
+	
+	/**
+	 * Registers a proxy class that is being loaded.
+	 */
+	public static void register(ClassLoader loader, byte[] classfileBuffer) {
+		String[] supertypes = ClassfileScanner.getSupertypeNames(classfileBuffer);
+		String[] supertypeNames = new String[supertypes.length];
+		for (int i = 0; i < supertypes.length; i++) {
+			supertypeNames[i] = TransformationUtils.getClassName(supertypes[i]);
+		}
+		String name = TransformationUtils.getClassName(ClassfileScanner.getClassName(classfileBuffer));
+		ProxyEntry entry = new ProxyEntry(name, loader, ClassfileScanner.getAccessFlags(classfileBuffer),
+				supertypeNames);
+		getEntries(proxies, entry.name).add(entry);
+		for (String supertypeName : supertypeNames) {
+			if (!supertypeName.equals("java.lang.Object"))
+				getEntries(dependents, supertypeName).add(entry);
+		}
+		if (registrations.incrementAndGet() % SWEEP_INTERVAL == 0)
+			sweep();
+	}
+	
+	public static boolean hasDependents(String supertypeName) {
+		return dependents.containsKey(supertypeName);
+	}
+	
+	/**
+	 * Marks all registered proxies of the supertype as changed.
+	 */
+	public static void markChanged(String supertypeName) {
+		Set<ProxyEntry> entries = dependents.get(supertypeName);
+		if (entries == null)
+			return;
+		changeCount.incrementAndGet();
+		for (Iterator<ProxyEntry> iterator = entries.iterator(); iterator.hasNext();) {
+			ProxyEntry entry = iterator.next();
+			if (entry.isUnloaded()) {
+				iterator.remove();
+				remove(proxies, entry);
+			} else {
+				entry.changed = true;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the loaded proxies that are marked as changed.
+	 */
+	public static List<ProxyEntry> getChangedProxies() {
+		List<ProxyEntry> changed = new ArrayList<>();
+		for (Set<ProxyEntry> entries : proxies.values()) {
+			for (ProxyEntry entry : entries) {
+				if (entry.changed && !entry.isUnloaded())
+					changed.add(entry);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Number of times proxies have been marked as changed, work done for the changed proxies is outdated once this
+	 * number has changed.
+	 */
+	public static long getChangeCount() {
+		return changeCount.get();
+	}
+	
+	public static boolean isIndexed(Class<?> proxy) {
+		return find(proxy) != null;
+	}
+	
+	/**
+	 * Checks if a supertype of the proxy has been changed since the proxy was last regenerated.
+	 */
+	public static boolean isChanged(Class<?> proxy) {
+		ProxyEntry entry = find(proxy);
+		return entry != null && entry.changed;
+	}
+	
+	/**
+	 * Called after the proxy has been regenerated.
+	 */
+	public static void clearChanged(Class<?> proxy) {
+		ProxyEntry entry = find(proxy);
+		if (entry != null)
+			entry.changed = false;
+	}
+	
+	private static ProxyEntry find(Class<?> proxy) {
+		Set<ProxyEntry> entries = proxies.get(proxy.getName());
+		if (entries == null)
+			return null;
+		for (ProxyEntry entry : entries) {
+			if (entry.loader.get() == proxy.getClassLoader())
+				return entry;
+		}
+		return null;
+	}
+	
+	/**
+	 * Drops the entries of unloaded proxies.
+	 */
+	private static void sweep() {
+		sweep(dependents);
+		sweep(proxies);
+	}
+	
+	private static void sweep(ConcurrentHashMap<String, Set<ProxyEntry>> map) {
+		for (Iterator<Set<ProxyEntry>> setIterator = map.values().iterator(); setIterator.hasNext();) {
+			Set<ProxyEntry> entries = setIterator.next();
+			for (Iterator<ProxyEntry> iterator = entries.iterator(); iterator.hasNext();) {
+				if (iterator.next().isUnloaded())
+					iterator.remove();
+			}
+		}
+	}
+	
+	private static Set<ProxyEntry> getEntries(ConcurrentHashMap<String, Set<ProxyEntry>> map, String name) {
+		Set<ProxyEntry> entries = map.get(name);
+		if (entries == null) {
+			entries = Collections.newSetFromMap(new ConcurrentHashMap<ProxyEntry, Boolean>());
+			Set<ProxyEntry> old = map.putIfAbsent(name, entries);
+			if (old != null)
+				entries = old;
+		}
+		return entries;
+	}
+	
+	private static void remove(ConcurrentHashMap<String, Set<ProxyEntry>> map, ProxyEntry entry) {
+		Set<ProxyEntry> entries = map.get(entry.name);
+		if (entries != null)
+			entries.remove(entry);
+	}
+	
+	public static class ProxyEntry {
+		private final String name;
+		private final WeakReference<ClassLoader> loader;
+		/* the bootstrap class loader is never unloaded */
+		private final boolean bootstrap;
+		private final int accessFlags;
+		/* superclass first */
+		private final String[] supertypeNames;
+		private volatile boolean changed;
+		
+		public ProxyEntry(String name, ClassLoader loader, int accessFlags, String[] supertypeNames) {
+			this.name = name;
+			this.loader = new WeakReference<>(loader);
+			this.bootstrap = loader == null;
+			this.accessFlags = accessFlags;
+			this.supertypeNames = supertypeNames;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public ClassLoader getLoader() {
+			return loader.get();
+		}
+		
+		/**
+		 * The access_flags of the loaded proxy class, a redefinition must not change them.
+		 */
+		public int getAccessFlags() {
+			return accessFlags;
+		}
+		
+		/**
+		 * Names of the superclass and the interfaces of the proxy, the superclass is the first element.
+		 */
+		public String[] getSupertypeNames() {
+			return supertypeNames;
+		}
+		
+		public boolean isUnloaded() {
+			return !bootstrap && loader.get() == null;
+		}
+	}
+}
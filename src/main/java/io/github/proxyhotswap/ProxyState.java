@@ -0,0 +1,85 @@
+package io.github.proxyhotswap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * TransformationState of a single proxy class with compare-and-set transitions, so that concurrent redefinitions of
+ * the proxy agree on which of them does the work.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyState {
+	private static final AtomicReferenceFieldUpdater<ProxyState, TransformationState> STATE = AtomicReferenceFieldUpdater
+			.newUpdater(ProxyState.class, TransformationState.class, "state");
+	private static final AtomicIntegerFieldUpdater<ProxyState> RETRIES = AtomicIntegerFieldUpdater.newUpdater(
+			ProxyState.class, "retries");
+	private static final AtomicIntegerFieldUpdater<ProxyState> DIRTY = AtomicIntegerFieldUpdater.newUpdater(
+			ProxyState.class, "dirty");
+	
+	private volatile TransformationState state = TransformationState.DETECTED;
+	private volatile int retries;
+	/* set when a redefinition arrives during REGENERATING */
+	private volatile int dirty;
+	/* generated bytes the applied definition was made from, before instrumenting, or null */
+	private volatile byte[] generated;
+	
+	public TransformationState get() {
+		return state;
+	}
+	
+	/**
+	 * Moves to the next state if the current state is the expected one.
+	 */
+	public boolean transition(TransformationState expected, TransformationState next) {
+		return STATE.compareAndSet(this, expected, next);
+	}
+	
+	public void set(TransformationState next) {
+		state = next;
+	}
+	
+	public int getRetries() {
+		return retries;
+	}
+	
+	public int incrementRetries() {
+		return RETRIES.incrementAndGet(this);
+	}
+	
+	public void resetRetries() {
+		retries = 0;
+	}
+	
+	public void markDirty() {
+		dirty = 1;
+	}
+	
+	/**
+	 * Clears the dirty mark, returns whether it was set.
+	 */
+	public boolean clearDirty() {
+		return DIRTY.getAndSet(this, 0) == 1;
+	}
+	
+	/**
+	 * Checks if the proxy generated again is the same as the one the applied definition was made from.
+	 */
+	public boolean isGenerated(byte[] bytes) {
+		return Arrays.equals(generated, bytes);
+	}
+	
+	/**
+	 * Records the generated bytes the next definition is made from, null if they are not known.
+	 */
+	public void setGenerated(byte[] bytes) {
+		generated = bytes;
+	}
+	
+	@Override
+	public String toString() {
+		return state + (retries > 0 ? " (retries " + retries + ")" : "");
+	}
+}
@@ -0,0 +1,143 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the classes scheduled for redefinition during a short window and redefines them with a single
+ * Instrumentation.redefineClasses call on one daemon thread. A changed interface with hundreds of proxies then causes
+ * one redefinition instead of one thread and one redefinition per proxy.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class RedefinitionScheduler {
+	private static final long WINDOW_MILLIS = Long.getLong("io.github.proxyhotswap.redefinitionWindow", 50L);
+	private static RedefinitionScheduler instance;
+	private static final Timer latencyTimer = Metrics.timer("redefinition.latency");
+	private static final Timer redefineTimer = Metrics.timer("redefinition.redefineClasses");
+	private static final Counter batchesCounter = Metrics.counter("redefinition.batches");
+	private static final Counter classesCounter = Metrics.counter("redefinition.classes");
+	/* classes that could not be redefined on their own either */
+	private static final Counter failedCounter = Metrics.counter("redefinition.failed");
+	
+	private final Instrumentation inst;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ProxyHotswap redefinition");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private Map<Class<?>, Pending> pending = new LinkedHashMap<>();
+	private long batchStart;
+	
+	/**
+	 * Notified about the outcome of a scheduled redefinition.
+	 */
+	public interface Callback {
+		/**
+		 * The batch of the class failed and it is about to be redefined on its own. The transformations done for the
+		 * failed batch have been rolled back.
+		 */
+		void retrying(Class<?> clazz);
+		
+		/**
+		 * The class could not be redefined on its own either. Invalid class files fail with a LinkageError, like
+		 * VerifyError or ClassFormatError.
+		 */
+		void failed(Class<?> clazz, Throwable e);
+	}
+	
+	public RedefinitionScheduler(Instrumentation inst) {
+		this.inst = inst;
+	}
+	
+	public static synchronized RedefinitionScheduler getInstance(Instrumentation inst) {
+		if (instance == null)
+			instance = new RedefinitionScheduler(inst);
+		return instance;
+	}
+	
+	/**
+	 * Adds the class to the current batch, starting a new batch if there is none. A class scheduled twice in the same
+	 * window is redefined once, with the latest bytes.
+	 */
+	public synchronized void schedule(Class<?> clazz, byte[] classfileBuffer, Callback callback) {
+		if (pending.isEmpty()) {
+			batchStart = System.nanoTime();
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					redefineBatch();
+				}
+			}, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		pending.put(clazz, new Pending(classfileBuffer, callback));
+	}
+	
+	private void redefineBatch() {
+		Map<Class<?>, Pending> batch;
+		long start;
+		synchronized (this) {
+			batch = pending;
+			start = batchStart;
+			pending = new LinkedHashMap<>();
+		}
+		if (batch.isEmpty())
+			return;
+		List<ClassDefinition> definitions = new ArrayList<>(batch.size());
+		for (Map.Entry<Class<?>, Pending> entry : batch.entrySet()) {
+			definitions.add(new ClassDefinition(entry.getKey(), entry.getValue().classfileBuffer));
+		}
+		long redefineStart = System.nanoTime();
+		try {
+			inst.redefineClasses(definitions.toArray(new ClassDefinition[definitions.size()]));
+		} catch (Exception | LinkageError e) {
+			// one bad class fails the whole batch, redefine them one by one to find it
+			redefineSeparately(batch);
+		}
+		redefineTimer.stop(redefineStart);
+		latencyTimer.stop(start);
+		classesCounter.add(batch.size());
+		batchesCounter.increment();
+	}
+	
+	private void redefineSeparately(Map<Class<?>, Pending> batch) {
+		for (Map.Entry<Class<?>, Pending> entry : batch.entrySet()) {
+			Pending value = entry.getValue();
+			try {
+				value.callback.retrying(entry.getKey());
+				inst.redefineClasses(new ClassDefinition(entry.getKey(), value.classfileBuffer));
+			} catch (Exception | LinkageError e) {
+				failedCounter.increment();
+				TransformationUtils.logError(e);
+				value.callback.failed(entry.getKey(), e);
+			}
+		}
+	}
+	
+	private static class Pending {
+		private final byte[] classfileBuffer;
+		private final Callback callback;
+		
+		public Pending(byte[] classfileBuffer, Callback callback) {
+			this.classfileBuffer = classfileBuffer;
+			this.callback = callback;
+		}
+	}
+}
@@ -1,9 +1,20 @@
 package io.github.proxyhotswap;
 
 /**
+ * Lifecycle of a proxy class in a two-step transformation.
+ * 
  * @author Erki Ehtla
  * 
  */
 public enum TransformationState {
-	NEW, WAITING
-}
\ No newline at end of file
+	/** loaded, not transformed yet */
+	DETECTED,
+	/** a supertype has changed, a redefinition of the proxy has been scheduled */
+	SCHEDULED,
+	/** the scheduled redefinition is generating the new class */
+	REGENERATING,
+	/** the new class has been generated */
+	APPLIED,
+	/** generating failed more times than allowed */
+	FAILED
+}
@@ -2,12 +2,21 @@ package io.github.proxyhotswap;
 
 import io.github.proxyhotswap.javassist.ClassPool;
 import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 /**
  * @author Erki Ehtla
  * 
  */
 public class TransformationUtils {
+	private static final int CLASS_POOL_SIZE = Integer.getInteger("io.github.proxyhotswap.classPoolSize", 1024);
+	private static final ClassPool classPool = createClassPool();
+	private static final Timer parseTimer = Metrics.timer("parse");
+	
 	public static void detachCtClass(CtClass cc) {
 		if (cc != null) {
 			try {
@@ -18,15 +27,47 @@ public class TransformationUtils {
 		}
 	}
 	
-	public static void logError(Exception e) {
+	public static void logError(Throwable e) {
 		e.printStackTrace();
 	}
 	
 	public static String getClassName(String name) {
-		return name.replaceAll("/", ".");
+		return name.replace('/', '.');
 	}
 	
+	/**
+	 * Shared ClassPool of the agent. Keeps the last redefined versions of interfaces, which are not visible through
+	 * reflection yet. All other classes are bounded, so it does not grow with every loaded or redefined class.
+	 */
 	public static ClassPool getClassPool() {
-		return ClassPool.getDefault();
+		return classPool;
+	}
+	
+	/**
+	 * Parses the class file into a throwaway child of the shared ClassPool. Referenced classes are still resolved
+	 * through the shared ClassPool, but the parsed class itself is never cached there and is garbage collected with the
+	 * returned CtClass.
+	 */
+	public static CtClass makeScopedClass(byte[] classfileBuffer) throws IOException {
+		long start = System.nanoTime();
+		CtClass cc = new ClassPool(classPool).makeClass(new ByteArrayInputStream(classfileBuffer), false);
+		parseTimer.stop(start);
+		return cc;
+	}
+	
+	/**
+	 * Parses the class file into the shared ClassPool, replacing the previous version of the class there.
+	 */
+	public static CtClass makeSharedClass(byte[] classfileBuffer) throws IOException {
+		long start = System.nanoTime();
+		CtClass cc = classPool.makeClass(new ByteArrayInputStream(classfileBuffer), false);
+		parseTimer.stop(start);
+		return cc;
+	}
+	
+	private static ClassPool createClassPool() {
+		ClassPool pool = new BoundedClassPool(CLASS_POOL_SIZE);
+		pool.appendSystemPath();
+		return pool;
 	}
 }
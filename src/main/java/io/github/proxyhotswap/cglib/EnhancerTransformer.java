@@ -1,14 +1,19 @@
 package io.github.proxyhotswap.cglib;
 
 import io.github.proxyhotswap.AbstractProxyTransformer;
-import io.github.proxyhotswap.TransformationState;
+import io.github.proxyhotswap.ClassfileBufferSigantureTransformer;
 import io.github.proxyhotswap.TransformationUtils;
 import io.github.proxyhotswap.javassist.CtClass;
 import io.github.proxyhotswap.javassist.CtMethod;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
 
 import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.reflect.UndeclaredThrowableException;
 
 /**
  * @author Erki Ehtla
@@ -16,13 +21,58 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class EnhancerTransformer extends AbstractProxyTransformer {
 	
+	private static final Timer cglibGenerateTimer = Metrics.timer("generate.cglib");
+	/* regenerate in the first redefinition event when the Enhancer can see the changes */
+	private static final boolean SINGLE_STEP = Boolean.getBoolean("io.github.proxyhotswap.singleStepCglib");
+	/* GeneratorStrategy.generate(ClassGenerator) of each generator class, as (Object, Object)byte[], or null */
+	private static final ClassValue<MethodHandle> generateMethods = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> type) {
+			Method method = getGenerateMethod(type);
+			if (method == null)
+				return null;
+			try {
+				// the generator class does not have to be public
+				method.setAccessible(true);
+				return MethodHandles.lookup().unreflect(method)
+						.asType(MethodType.methodType(byte[].class, Object.class, Object.class));
+			} catch (IllegalAccessException | RuntimeException e) {
+				TransformationUtils.logError(e);
+				return null;
+			}
+		}
+	};
+	
+	private final boolean singleStep;
+	private final GeneratorRegistry generatorParams;
+	
 	public EnhancerTransformer(Instrumentation inst) {
-		super(inst, new ConcurrentHashMap<Class<?>, TransformationState>());
+		this(inst, SINGLE_STEP, GeneratorSpyTransformer.getGeneratorParams());
 	}
 	
+	public EnhancerTransformer(Instrumentation inst, boolean singleStep, GeneratorRegistry generatorParams) {
+		super(inst);
+		this.singleStep = singleStep;
+		this.generatorParams = generatorParams;
+	}
+	
+	/**
+	 * The Enhancer reads the superclass and the interfaces through reflection, which sees their changes once they are
+	 * redefined. That is the case when they were changed by an earlier redefinition than the one of the proxy. DCEVM
+	 * redefines the subtypes in the same batch as their changed supertype, so for those the proxy still takes two
+	 * steps.
+	 */
 	@Override
-	protected boolean isProxy(String className, Class<?> classBeingRedefined, byte[] classfileBuffer) {
-		return GeneratorSpyTransformer.getGeneratorParams().containsKey(className.replaceAll("/", "."));
+	protected boolean canRegenerateImmediately(Class<?> classBeingRedefined) {
+		return singleStep && ClassfileBufferSigantureTransformer.areSupertypesRedefined(classBeingRedefined);
+	}
+	
+	@Override
+	protected boolean isProxy(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			byte[] classfileBuffer) {
+		if (classBeingRedefined != null)
+			return generatorParams.get(classBeingRedefined) != null;
+		return generatorParams.isPending(loader, className);
 	}
 	
 	@Override
@@ -45,35 +95,34 @@ public class EnhancerTransformer extends AbstractProxyTransformer {
 	@Override
 	protected byte[] getNewByteCode(ClassLoader loader, String className, Class<?> classBeingRedefined)
 			throws Exception {
-		GeneratorParams param = GeneratorSpyTransformer.getGeneratorParams().get(
-				TransformationUtils.getClassName(className));
+		GeneratorParams param = generatorParams.get(classBeingRedefined);
 		if (param == null)
 			throw new RuntimeException("No Parameters found for redefinition!");
 		
-		Method genMethod = getGenerateMethod(param.getGenerator());
-		if (genMethod == null)
+		MethodHandle generateMethod = generateMethods.get(param.getGenerator().getClass());
+		if (generateMethod == null)
 			throw new RuntimeException("No generation Method found for redefinition!");
 		
-		byte[] invoke = (byte[]) genMethod.invoke(param.getGenerator(), param.getParam());
+		long start = System.nanoTime();
+		byte[] invoke;
+		try {
+			invoke = (byte[]) generateMethod.invokeExact(param.getGenerator(), param.getParam());
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new UndeclaredThrowableException(e);
+		}
+		cglibGenerateTimer.stop(start);
 		return invoke;
 	}
 	
-	@Override
-	protected CtClass getCtClass(byte[] newByteCode, String className) throws Exception {
-		// can use get because generator parameter spy has already loaded it to the clas pool
-		return classPool.get(TransformationUtils.getClassName(className));
-	}
-	
-	private Method getGenerateMethod(Object generator) {
-		Method generateMethod = null;
-		Method[] methods = generator.getClass().getMethods();
-		for (Method method : methods) {
-			if (method.getName().equals("generate") && method.getReturnType().getSimpleName().equals("byte[]")) {
-				generateMethod = method;
-				break;
-			}
+	private static Method getGenerateMethod(Class<?> generatorClass) {
+		for (Method method : generatorClass.getMethods()) {
+			if (method.getName().equals("generate") && method.getReturnType() == byte[].class
+					&& method.getParameterTypes().length == 1)
+				return method;
 		}
-		return generateMethod;
+		return null;
 	}
 	
 }
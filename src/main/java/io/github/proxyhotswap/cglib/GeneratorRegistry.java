@@ -0,0 +1,272 @@
+package io.github.proxyhotswap.cglib;
+
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generator parameters of the cglib proxies, kept for generating the proxies again. The parameters hold the
+ * GeneratorStrategy and the Enhancer, which reference the class loader of the proxy, so the registry must not hold them
+ * strongly.
+ * 
+ * A registration waits in the pending map until its proxy class is defined, then it is moved into a ClassValue of the
+ * proxy class. From there it is only reachable through the proxy class and is collected together with the class loader
+ * of the proxy. Pending registrations whose class is not defined in time are evicted.
+ * 
+ * Registering reads the class loader from the generator, with a Method cached per generator class, and puts the
+ * registration into the pending map. It runs in the application thread on every cglib class generation. Finding the
+ * defined classes is done by a background thread, a while after the registration, when the proxy classes have been
+ * defined. Registrations are kept apart by class loader, so proxies of the same name in different class loaders do not
+ * replace each other.
+ * 
+ * The pending map references the class loaders strongly, and so do the generators of the pending registrations. A
+ * registration normally leaves the pending map io.github.proxyhotswap.generatorExpungeDelay milliseconds after its
+ * class is defined, but one whose class is never defined, like when the generation failed, keeps its class loader
+ * from being collected for up to io.github.proxyhotswap.pendingGeneratorTimeout seconds. Lower the timeout if
+ * applications are redeployed often.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class GeneratorRegistry {
+	/* how long a registration waits for its class to be defined */
+	private static final long PENDING_TIMEOUT = TimeUnit.SECONDS.toNanos(Long.getLong(
+			"io.github.proxyhotswap.pendingGeneratorTimeout", 60L));
+	/* delay of moving the registrations after a registration */
+	private static final long EXPUNGE_DELAY = Long.getLong("io.github.proxyhotswap.generatorExpungeDelay", 1000L);
+	private static final GeneratorParams NONE = new GeneratorParams(null, null);
+	/* key of the registrations whose class loader is not known, they match a class of any class loader */
+	private static final Object UNKNOWN_LOADER = new Object();
+	private static final ClassValue<Method> loaderGetters = new ClassValue<Method>() {
+		@Override
+		protected Method computeValue(Class<?> type) {
+			try {
+				return type.getMethod("getClassLoader");
+			} catch (NoSuchMethodException | SecurityException e) {
+				return null;
+			}
+		}
+	};
+	private static final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ProxyHotswap generator registry");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	
+	private static final Counter sizeCounter = Metrics.counter("cglib.generators.size");
+	private static final Counter registeredCounter = Metrics.counter("cglib.generators.registered");
+	private static final Counter evictedCounter = Metrics.counter("cglib.generators.evicted");
+	
+	/*
+	 * pending registrations by class loader, then by class name in the internal form. Class loaders do not override
+	 * equals and hashCode, so they are matched by identity.
+	 */
+	private final ConcurrentHashMap<Object, ConcurrentHashMap<String, Pending>> pending = new ConcurrentHashMap<>();
+	/* the registration of a proxy class, it is removed from the pending map by expunge */
+	private final ClassValue<GeneratorParams> proxies = new ClassValue<GeneratorParams>() {
+		@Override
+		protected GeneratorParams computeValue(Class<?> type) {
+			String name = type.getName().replace('.', '/');
+			Pending registration = getPending(getKey(type.getClassLoader()), name);
+			if (registration == null)
+				registration = getPending(UNKNOWN_LOADER, name);
+			return registration != null ? registration.params : NONE;
+		}
+	};
+	/* references to the proxy classes holding a registration, to count the ones that are unloaded */
+	private final ReferenceQueue<Class<?>> unloaded = new ReferenceQueue<>();
+	private final Set<ProxyReference> references = Collections
+			.newSetFromMap(new ConcurrentHashMap<ProxyReference, Boolean>());
+	private final AtomicBoolean expungeScheduled = new AtomicBoolean();
+	private final Runnable expungeTask = new Runnable() {
+		@Override
+		public void run() {
+			expungeScheduled.set(false);
+			try {
+				expunge();
+			} catch (RuntimeException e) {
+				TransformationUtils.logError(e);
+			}
+			// the last registrations wait for their classes
+			if (size() > references.size())
+				scheduleExpunge();
+		}
+	};
+	
+	/**
+	 * Registers the parameters of a proxy class about to be defined. The class loader of the proxy is taken from the
+	 * class generator, the param of the GeneratorParams.
+	 * 
+	 * @param name
+	 *            name of the class in the internal form
+	 */
+	public void register(String name, GeneratorParams params) {
+		Object key = getKey(getClassLoader(params.getParam()));
+		Pending registration = new Pending(params, System.nanoTime());
+		Pending old;
+		while (true) {
+			ConcurrentHashMap<String, Pending> names = pending.get(key);
+			if (names == null) {
+				names = new ConcurrentHashMap<>();
+				ConcurrentHashMap<String, Pending> current = pending.putIfAbsent(key, names);
+				if (current != null)
+					names = current;
+			}
+			old = names.put(name, registration);
+			// expunge may have removed the map as empty
+			if (pending.get(key) == names)
+				break;
+		}
+		registeredCounter.increment();
+		if (old == null)
+			sizeCounter.increment();
+		else
+			evictedCounter.increment();
+		scheduleExpunge();
+	}
+	
+	private void scheduleExpunge() {
+		if (expungeScheduled.compareAndSet(false, true))
+			executor.schedule(expungeTask, EXPUNGE_DELAY, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the parameters of the proxy class, or null if it is not a registered proxy.
+	 */
+	public GeneratorParams get(Class<?> proxy) {
+		GeneratorParams params = proxies.get(proxy);
+		return params == NONE ? null : params;
+	}
+	
+	/**
+	 * Checks if a proxy class with the name is registered, but has not been moved to its class yet. Does not allocate.
+	 * 
+	 * @param name
+	 *            name of the class in the internal form
+	 */
+	public boolean isPending(ClassLoader loader, String name) {
+		return getPending(getKey(loader), name) != null || getPending(UNKNOWN_LOADER, name) != null;
+	}
+	
+	/**
+	 * Number of registrations, pending or held by their proxy classes.
+	 */
+	public int size() {
+		int size = references.size();
+		for (ConcurrentHashMap<String, Pending> names : pending.values()) {
+			size += names.size();
+		}
+		return size;
+	}
+	
+	private Pending getPending(Object key, String name) {
+		ConcurrentHashMap<String, Pending> names = pending.get(key);
+		return names != null ? names.get(name) : null;
+	}
+	
+	private static Object getKey(ClassLoader loader) {
+		return loader != null ? loader : UNKNOWN_LOADER;
+	}
+	
+	/**
+	 * The class loader the proxy is defined in, from AbstractClassGenerator.getClassLoader(), or null.
+	 */
+	private static ClassLoader getClassLoader(Object classGenerator) {
+		if (classGenerator == null)
+			return null;
+		Method getter = loaderGetters.get(classGenerator.getClass());
+		try {
+			Object loader = getter != null ? getter.invoke(classGenerator) : null;
+			return loader instanceof ClassLoader ? (ClassLoader) loader : null;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Moves the registrations of defined classes to their classes, evicts the registrations that can not be used any
+	 * more and counts the unloaded proxy classes.
+	 */
+	public void expunge() {
+		for (Object reference; (reference = unloaded.poll()) != null;) {
+			if (references.remove(reference))
+				evict();
+		}
+		long now = System.nanoTime();
+		for (Map.Entry<Object, ConcurrentHashMap<String, Pending>> loaderEntry : pending.entrySet()) {
+			Object key = loaderEntry.getKey();
+			ConcurrentHashMap<String, Pending> names = loaderEntry.getValue();
+			for (Map.Entry<String, Pending> entry : names.entrySet()) {
+				Pending registration = entry.getValue();
+				Class<?> defined = key != UNKNOWN_LOADER ? findDefined((ClassLoader) key, entry.getKey()) : null;
+				if (defined != null && proxies.get(defined) == registration.params) {
+					if (names.remove(entry.getKey(), registration))
+						references.add(new ProxyReference(defined, unloaded));
+				} else if (defined != null || now - registration.registered > PENDING_TIMEOUT) {
+					// a class defined from other parameters, or one that is not defined in time
+					if (names.remove(entry.getKey(), registration))
+						evict();
+				}
+			}
+			if (names.isEmpty() && pending.remove(key, names) && !names.isEmpty()) {
+				// registered while the map was removed
+				ConcurrentHashMap<String, Pending> current = pending.putIfAbsent(key, names);
+				if (current != null) {
+					for (Map.Entry<String, Pending> entry : names.entrySet()) {
+						current.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the proxy class if it has been defined in its class loader.
+	 */
+	private static Class<?> findDefined(ClassLoader loader, String name) {
+		try {
+			Class<?> clazz = Class.forName(name.replace('/', '.'), false, loader);
+			return clazz.getClassLoader() == loader ? clazz : null;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+	
+	private static void evict() {
+		sizeCounter.add(-1);
+		evictedCounter.increment();
+	}
+	
+	private static class Pending {
+		private final GeneratorParams params;
+		private final long registered;
+		
+		public Pending(GeneratorParams params, long registered) {
+			this.params = params;
+			this.registered = registered;
+		}
+	}
+	
+	private static class ProxyReference extends WeakReference<Class<?>> {
+		public ProxyReference(Class<?> proxy, ReferenceQueue<Class<?>> queue) {
+			super(proxy, queue);
+		}
+	}
+}
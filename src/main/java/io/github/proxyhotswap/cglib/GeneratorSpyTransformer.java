@@ -1,39 +1,50 @@
 package io.github.proxyhotswap.cglib;
 
+import io.github.proxyhotswap.ClassView;
+import io.github.proxyhotswap.ClassViewTransformer;
+import io.github.proxyhotswap.ClassfileScanner;
 import io.github.proxyhotswap.TransformationUtils;
 import io.github.proxyhotswap.javassist.CannotCompileException;
-import io.github.proxyhotswap.javassist.ClassPool;
 import io.github.proxyhotswap.javassist.CtClass;
 import io.github.proxyhotswap.javassist.CtMethod;
 import io.github.proxyhotswap.javassist.NotFoundException;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Erki Ehtla
  * 
  */
-public class GeneratorSpyTransformer implements ClassFileTransformer {
+public class GeneratorSpyTransformer implements ClassFileTransformer, ClassViewTransformer {
 	
-	private static Map<String, GeneratorParams> generatorParams = new ConcurrentHashMap<>();
-	protected static final ClassPool classPool = TransformationUtils.getClassPool();
+	private static final String GENERATOR_STRATEGY = "GeneratorStrategy";
+	private static GeneratorRegistry generatorParams = new GeneratorRegistry();
+	private static final Timer transformTimer = Metrics.timer("transform.GeneratorSpyTransformer");
 	
 	public byte[] transform(ClassLoader loader, String className, final Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
-		if (classBeingRedefined != null)
+		return transform(new ClassView(loader, className, classBeingRedefined, protectionDomain, classfileBuffer));
+	}
+	
+	@Override
+	public byte[] transform(ClassView classView) {
+		if (classView.isRedefinition())
 			return null;
 		CtClass cc;
+		long start = System.nanoTime();
 		try {
-			cc = classPool.makeClass(new ByteArrayInputStream(classfileBuffer), false);
+			// Cheap check straight from the bytes, most classes never get to the javassist parse below
+			if (!ClassfileScanner.hasInterface(classView.getClassfileBuffer(), GENERATOR_STRATEGY))
+				return null;
+			cc = classView.getCtClass();
 			CtClass[] interfaces = cc.getInterfaces();
 			for (CtClass class1 : interfaces) {
 				// We use strings because some libraries repackage cglib to a different namespace to avoid conflicts.
-				if (class1.getSimpleName().equals("GeneratorStrategy")) {
+				if (class1.getSimpleName().equals(GENERATOR_STRATEGY)) {
 					CtMethod[] declaredMethods = class1.getMethods();
 					for (CtMethod method : declaredMethods) {
 						if (method.getName().equals("generate")
@@ -45,16 +56,20 @@ public class GeneratorSpyTransformer implements ClassFileTransformer {
 			}
 		} catch (IOException | RuntimeException | NotFoundException | CannotCompileException e) {
 			TransformationUtils.logError(e);
+		} finally {
+			transformTimer.stop(start);
 		}
 		return null;
 	}
 	
 	public static void register(Object generatorStrategy, Object classGenerator, byte[] bytes) {
-		CtClass cc = null;
 		try {
-			cc = classPool.makeClass(new ByteArrayInputStream(bytes), false);
-			generatorParams.put(cc.getName(), new GeneratorParams(generatorStrategy, classGenerator));
-		} catch (IOException | RuntimeException e) {
+			// runs in the application thread on every cglib class generation. Reads the class name from the bytes and
+			// the class loader from the generator, through a cached Method, finding the defined class is done in the
+			// background
+			generatorParams.register(ClassfileScanner.getClassName(bytes), new GeneratorParams(generatorStrategy,
+					classGenerator));
+		} catch (RuntimeException e) {
 			TransformationUtils.logError(e);
 		}
 	}
@@ -66,7 +81,7 @@ public class GeneratorSpyTransformer implements ClassFileTransformer {
 		return cc.toBytecode();
 	}
 	
-	public static Map<String, GeneratorParams> getGeneratorParams() {
+	public static GeneratorRegistry getGeneratorParams() {
 		return generatorParams;
 	}
 	
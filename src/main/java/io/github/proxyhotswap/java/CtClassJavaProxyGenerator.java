@@ -25,6 +25,8 @@
 
 package io.github.proxyhotswap.java;
 
+import io.github.proxyhotswap.ClassfileBufferSigantureTransformer;
+import io.github.proxyhotswap.MethodTableFingerprint;
 import io.github.proxyhotswap.TransformationUtils;
 import io.github.proxyhotswap.javassist.ClassPool;
 import io.github.proxyhotswap.javassist.CtClass;
@@ -32,22 +34,30 @@ import io.github.proxyhotswap.javassist.CtMethod;
 import io.github.proxyhotswap.javassist.CtPrimitiveType;
 import io.github.proxyhotswap.javassist.NotFoundException;
 import io.github.proxyhotswap.javassist.bytecode.Descriptor;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.UUID;
 
 import sun.security.action.GetBooleanAction;
 
@@ -68,6 +78,8 @@ public class CtClassJavaProxyGenerator {
 	/* generate 1.5-era class file version */
 	private static final int CLASSFILE_MAJOR_VERSION = 49;
 	private static final int CLASSFILE_MINOR_VERSION = 0;
+	/* invokedynamic needs a 1.7 class file version, which also needs stack map frames */
+	private static final int CLASSFILE_INDY_MAJOR_VERSION = 51;
 	
 	/*
 	 * beginning of constants copied from sun.tools.java.RuntimeConstants (which no longer exists):
@@ -86,6 +98,16 @@ public class CtClassJavaProxyGenerator {
 	private static final int CONSTANT_METHOD = 10;
 	private static final int CONSTANT_INTERFACEMETHOD = 11;
 	private static final int CONSTANT_NAMEANDTYPE = 12;
+	private static final int CONSTANT_METHODHANDLE = 15;
+	private static final int CONSTANT_METHODTYPE = 16;
+	private static final int CONSTANT_INVOKEDYNAMIC = 18;
+	
+	/* method handle reference kinds */
+	private static final int REF_invokeStatic = 6;
+	
+	/* stack map frame types */
+	private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+	private static final int ITEM_Object = 7;
 	
 	/* access and modifier flags */
 	private static final int ACC_PUBLIC = 0x00000001;
@@ -289,6 +311,7 @@ public class CtClassJavaProxyGenerator {
 	private static final int opc_invokespecial = 183;
 	private static final int opc_invokestatic = 184;
 	private static final int opc_invokeinterface = 185;
+	private static final int opc_invokedynamic = 186;
 	private static final int opc_new = 187;
 	// private static final int opc_newarray = 188;
 	private static final int opc_anewarray = 189;
@@ -301,7 +324,7 @@ public class CtClassJavaProxyGenerator {
 	private static final int opc_wide = 196;
 	// private static final int opc_multianewarray = 197;
 	// private static final int opc_ifnull = 198;
-	// private static final int opc_ifnonnull = 199;
+	private static final int opc_ifnonnull = 199;
 	// private static final int opc_goto_w = 200;
 	// private static final int opc_jsr_w = 201;
 	
@@ -317,6 +340,52 @@ public class CtClassJavaProxyGenerator {
 	private final static boolean saveGeneratedFiles = java.security.AccessController.doPrivileged(
 			new GetBooleanAction("sun.misc.ProxyGenerator.saveGeneratedFiles")).booleanValue();
 	
+	/** name of the bootstrap method of the invokedynamic call sites */
+	private final static String bootstrapMethodName = "bootstrapProxyMethodByJavaAgentForHotSwap";
+	private final static String bootstrapMethodDesc = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+			+ "Ljava/lang/invoke/MethodType;Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)"
+			+ "Ljava/lang/invoke/CallSite;";
+	
+	/**
+	 * How the generated proxy methods get the Method objects they pass to the invocation handler.
+	 */
+	public enum MethodResolution {
+		/** all Method objects are resolved on the first call of any method */
+		EAGER,
+		/** the Method object of each method is resolved on its first call */
+		LAZY,
+		/**
+		 * each method gets its Method object from an invokedynamic call site bound to a constant, the class is
+		 * generated with a 1.7 class file version
+		 */
+		INVOKEDYNAMIC;
+		
+		private static MethodResolution getDefault() {
+			if (Boolean.getBoolean("io.github.proxyhotswap.invokedynamicProxies"))
+				return INVOKEDYNAMIC;
+			if (Boolean.getBoolean("io.github.proxyhotswap.lazyMethodResolution"))
+				return LAZY;
+			return EAGER;
+		}
+	}
+	
+	private final static MethodResolution defaultMethodResolution = MethodResolution.getDefault();
+	
+	/** box int and long arguments with the larger caches of ProxyArguments */
+	private final static boolean cacheArgumentBoxesEnabled = Boolean
+			.getBoolean("io.github.proxyhotswap.cacheArgumentBoxes");
+	private final static String proxyArgumentsClassName = "io/github/proxyhotswap/java/ProxyArguments";
+	
+	private static final Timer generateTimer = Metrics.timer("generate.CtClassJavaProxyGenerator");
+	private static final Counter bytesGenerated = Metrics.counter("bytesGenerated.CtClassJavaProxyGenerator");
+	
+	/**
+	 * The settings the proxy classes are generated with by default, the class files differ between them.
+	 */
+	public static String getDefaultSettings() {
+		return defaultMethodResolution + (cacheArgumentBoxesEnabled ? "+cacheArgumentBoxes" : "");
+	}
+	
 	/**
 	 * Generate a public proxy class given a name and a list of proxy interfaces.
 	 */
@@ -335,8 +404,32 @@ public class CtClassJavaProxyGenerator {
 	 *            access flags of the proxy class
 	 */
 	public static byte[] generateProxyClass(final String name, CtClass[] interfaces, int accessFlags) {
+		return generateProxyClass(name, interfaces, accessFlags, defaultMethodResolution, cacheArgumentBoxesEnabled);
+	}
+	
+	/**
+	 * Generate a proxy class given a name and a list of proxy interfaces.
+	 * 
+	 * @param name
+	 *            the class name of the proxy class
+	 * @param interfaces
+	 *            proxy interfaces
+	 * @param accessFlags
+	 *            access flags of the proxy class
+	 * @param methodResolution
+	 *            how the proxy methods get their Method objects
+	 * @param cacheArgumentBoxes
+	 *            box int and long arguments with ProxyArguments, which must be visible to the proxy class
+	 */
+	public static byte[] generateProxyClass(final String name, CtClass[] interfaces, int accessFlags,
+			MethodResolution methodResolution, boolean cacheArgumentBoxes) {
+		long start = System.nanoTime();
 		CtClassJavaProxyGenerator gen = new CtClassJavaProxyGenerator(name, interfaces, accessFlags);
+		gen.methodResolution = methodResolution;
+		gen.cacheArgumentBoxes = cacheArgumentBoxes;
 		final byte[] classFile = gen.generateClassFile();
+		generateTimer.stop(start);
+		bytesGenerated.add(classFile.length);
 		
 		if (saveGeneratedFiles) {
 			java.security.AccessController.doPrivileged(new java.security.PrivilegedAction<Void>() {
@@ -386,11 +479,79 @@ public class CtClassJavaProxyGenerator {
 			throw new RuntimeException(e);
 		}
 	}
+	/* analysis of the hashCode, equals, and toString methods of java.lang.Object */
+	private static List<AnalyzedMethod> objectMethods = Arrays.asList(new AnalyzedMethod(hashCodeMethod),
+			new AnalyzedMethod(equalsMethod), new AnalyzedMethod(toStringMethod));
+	/* constant pool entries used by most proxy classes, written at the start of the constant pool of every proxy */
+	private static final ConstantPool sharedConstants = createSharedConstants();
+	/* the written entries of sharedConstants, published with the class initialization */
+	private static final byte[] sharedConstantBytes = sharedConstants.writeEntries();
+	
+	private static ConstantPool createSharedConstants() {
+		ConstantPool cp = new ConstantPool();
+		cp.getClass(superclassName);
+		cp.getMethodRef(superclassName, "<init>", "(Ljava/lang/reflect/InvocationHandler;)V");
+		cp.getFieldRef(superclassName, handlerFieldName, "Ljava/lang/reflect/InvocationHandler;");
+		cp.getInterfaceMethodRef("java/lang/reflect/InvocationHandler", "invoke",
+				"(Ljava/lang/Object;Ljava/lang/reflect/Method;[Ljava/lang/Object;)Ljava/lang/Object;");
+		cp.getUtf8("Code");
+		cp.getUtf8("Exceptions");
+		cp.getUtf8("<clinit>");
+		cp.getUtf8("()V");
+		cp.getUtf8("Ljava/lang/reflect/Method;");
+		cp.getClass("java/lang/Object");
+		cp.getClass("java/lang/Class");
+		cp.getClass("java/lang/Throwable");
+		cp.getClass("java/lang/Error");
+		cp.getClass("java/lang/RuntimeException");
+		cp.getClass("java/lang/reflect/UndeclaredThrowableException");
+		cp.getMethodRef("java/lang/reflect/UndeclaredThrowableException", "<init>", "(Ljava/lang/Throwable;)V");
+		cp.getMethodRef("java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;");
+		cp.getMethodRef("java/lang/Class", "getMethod",
+				"(Ljava/lang/String;[Ljava/lang/Class;)Ljava/lang/reflect/Method;");
+		cp.getMethodRef("java/lang/Throwable", "getMessage", "()Ljava/lang/String;");
+		cp.getClass("java/lang/NoSuchMethodException");
+		cp.getClass("java/lang/NoSuchMethodError");
+		cp.getMethodRef("java/lang/NoSuchMethodError", "<init>", "(Ljava/lang/String;)V");
+		cp.getClass("java/lang/ClassNotFoundException");
+		cp.getClass("java/lang/NoClassDefFoundError");
+		cp.getMethodRef("java/lang/NoClassDefFoundError", "<init>", "(Ljava/lang/String;)V");
+		for (AnalyzedMethod method : objectMethods) {
+			cp.getUtf8(method.name);
+			cp.getUtf8(method.descriptor);
+			cp.getString(method.name);
+		}
+		cp.getString("java.lang.Object");
+		cp.setReadOnly();
+		return cp;
+	}
+	
+	/* number of interfaces whose analysis is kept */
+	private static final int MAX_ANALYZED_INTERFACES = Integer.getInteger(
+			"io.github.proxyhotswap.interfaceAnalysisCacheSize", 1024);
+	/*
+	 * analysis of the declared methods of interfaces by interface name, shared by the generators of all proxies of an
+	 * interface. Not weakly keyed by the CtClass, the analysis references the CtClass of the interface itself when a
+	 * method takes or returns the interface. A redefined interface is parsed into a new CtClass, which replaces the
+	 * entry of the old one, the fingerprint also guards against reusing a CtClass from before a redefinition.
+	 */
+	private static Map<String, InterfaceMethods> interfaceMethods = Collections
+			.synchronizedMap(new LinkedHashMap<String, InterfaceMethods>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, InterfaceMethods> eldest) {
+					return size() > MAX_ANALYZED_INTERFACES;
+				}
+			});
+	private static final Counter analysisHits = Metrics.counter("generate.interfaceAnalysis.hits");
+	private static final Counter analysisMisses = Metrics.counter("generate.interfaceAnalysis.misses");
 	
 	/** name of proxy class */
 	private String className;
-	private String random = UUID.randomUUID().toString().replace("-", "");
-	private String initFieldName = "clinitCalled" + random;
+	/** suffix of the member names that change with the proxy methods */
+	private String memberSuffix;
+	private String initFieldName;
 	private String initMethodName = "clinitMethodByJavaAgentForHotSwap";
 	
 	/** proxy interfaces */
@@ -399,8 +560,17 @@ public class CtClassJavaProxyGenerator {
 	/** proxy class access flags */
 	private int accessFlags;
 	
+	/** how the proxy methods get their Method objects */
+	private MethodResolution methodResolution = MethodResolution.EAGER;
+	
+	/** take the boxes of int and long arguments from ProxyArguments */
+	private boolean cacheArgumentBoxes;
+	
+	/** bootstrap_methods items of the BootstrapMethods attribute, the method handle index followed by arguments */
+	private List<short[]> bootstrapMethods = new ArrayList<>();
+	
 	/** constant pool of class being generated */
-	private ConstantPool cp = new ConstantPool();
+	private ConstantPool cp = new ConstantPool(sharedConstants, sharedConstantBytes);
 	
 	/** FieldInfo struct for each field of generated class */
 	private List<FieldInfo> fields = new ArrayList<>();
@@ -442,16 +612,16 @@ public class CtClassJavaProxyGenerator {
 		 * is done before the methods from the proxy interfaces so that the methods from java.lang.Object take
 		 * precedence over duplicate methods in the proxy interfaces.
 		 */
-		addProxyMethod(hashCodeMethod, oclp);
-		addProxyMethod(equalsMethod, oclp);
-		addProxyMethod(toStringMethod, oclp);
+		for (AnalyzedMethod m : objectMethods) {
+			addProxyMethod(m, oclp);
+		}
 		
 		/*
 		 * Now record all of the methods from the proxy interfaces, giving earlier interfaces precedence over later ones
 		 * with duplicate methods.
 		 */
 		for (CtClass intf : interfaces) {
-			for (CtMethod m : intf.getDeclaredMethods()) {
+			for (AnalyzedMethod m : getInterfaceMethods(intf)) {
 				addProxyMethod(m, intf);
 			}
 		}
@@ -463,6 +633,22 @@ public class CtClassJavaProxyGenerator {
 			checkReturnTypes(sigmethods);
 		}
 		
+		/*
+		 * The init guard field and the lazily resolved Method fields are renamed when the proxy methods change, so the
+		 * redefined class initializes them again. The names only depend on the methods, generating the proxy again from
+		 * the same interfaces gives the same class file.
+		 */
+		memberSuffix = computeMemberSuffix();
+		initFieldName = "clinitCalled" + memberSuffix;
+		if (methodResolution == MethodResolution.LAZY) {
+			// a Method field must not keep its value from the previous version of the class
+			for (List<ProxyMethod> sigmethods : proxyMethods.values()) {
+				for (ProxyMethod pm : sigmethods) {
+					pm.methodFieldName += "$" + memberSuffix;
+				}
+			}
+		}
+		
 		/*
 		 * ============================================================ Step 2: Assemble FieldInfo and MethodInfo
 		 * structs for all of fields and methods in the class we are generating.
@@ -470,23 +656,33 @@ public class CtClassJavaProxyGenerator {
 		try {
 			methods.add(generateConstructor());
 			
-			for (List<ProxyMethod> sigmethods : proxyMethods.values()) {
-				for (ProxyMethod pm : sigmethods) {
-					// add static field for method's Method object
-					fields.add(new FieldInfo(pm.methodFieldName, "Ljava/lang/reflect/Method;", ACC_PRIVATE | ACC_STATIC));
+			if (methodResolution != MethodResolution.INVOKEDYNAMIC) {
+				for (List<ProxyMethod> sigmethods : proxyMethods.values()) {
+					for (ProxyMethod pm : sigmethods) {
+						// add static field for method's Method object
+						fields.add(new FieldInfo(pm.methodFieldName, "Ljava/lang/reflect/Method;", ACC_PRIVATE
+								| ACC_STATIC));
+					}
 				}
 			}
 			
-			fields.add(new FieldInfo(initFieldName, "Z", ACC_PRIVATE | ACC_STATIC));
+			if (methodResolution == MethodResolution.EAGER)
+				fields.add(new FieldInfo(initFieldName, "Z", ACC_PRIVATE | ACC_STATIC));
 			
 			for (List<ProxyMethod> sigmethods : proxyMethods.values()) {
 				for (ProxyMethod pm : sigmethods) {
 					// generate code for proxy method and add it
 					methods.add(pm.generateMethod());
+					if (methodResolution == MethodResolution.LAZY)
+						methods.add(pm.generateResolver());
 				}
 			}
-			methods.add(generateStaticInitializer());
-			methods.add(generateStaticInitializerCaller());
+			if (methodResolution == MethodResolution.EAGER) {
+				methods.add(generateStaticInitializer());
+				methods.add(generateStaticInitializerCaller());
+			} else if (methodResolution == MethodResolution.INVOKEDYNAMIC) {
+				methods.add(generateBootstrapMethod());
+			}
 			
 		} catch (IOException e) {
 			throw new InternalError("unexpected I/O Exception");
@@ -512,6 +708,8 @@ public class CtClassJavaProxyGenerator {
 		for (CtClass intf : interfaces) {
 			cp.getClass(dotToSlash(intf.getName()));
 		}
+		if (!bootstrapMethods.isEmpty())
+			cp.getUtf8("BootstrapMethods");
 		
 		/*
 		 * Disallow new constant pool additions beyond this point, since we are about to write the final constant pool
@@ -519,7 +717,10 @@ public class CtClassJavaProxyGenerator {
 		 */
 		cp.setReadOnly();
 		
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		/*
+		 * The size of the class file is known now, write it into an array of the exact size.
+		 */
+		FixedSizeOutputStream bout = new FixedSizeOutputStream(getClassFileSize());
 		DataOutputStream dout = new DataOutputStream(bout);
 		
 		try {
@@ -531,7 +732,8 @@ public class CtClassJavaProxyGenerator {
 			// u2 minor_version;
 			dout.writeShort(CLASSFILE_MINOR_VERSION);
 			// u2 major_version;
-			dout.writeShort(CLASSFILE_MAJOR_VERSION);
+			dout.writeShort(methodResolution == MethodResolution.INVOKEDYNAMIC ? CLASSFILE_INDY_MAJOR_VERSION
+					: CLASSFILE_MAJOR_VERSION);
 			
 			cp.write(dout); // (write constant pool)
 			
@@ -563,14 +765,100 @@ public class CtClassJavaProxyGenerator {
 				m.write(dout);
 			}
 			
-			// u2 attributes_count;
-			dout.writeShort(0); // (no ClassFile attributes for proxy classes)
+			if (bootstrapMethods.isEmpty()) {
+				// u2 attributes_count;
+				dout.writeShort(0); // (no ClassFile attributes for proxy classes)
+			} else {
+				// u2 attributes_count;
+				dout.writeShort(1);
+				
+				// write "BootstrapMethods" attribute. See JVMS section 4.7.21.
+				
+				// u2 attribute_name_index;
+				dout.writeShort(cp.getUtf8("BootstrapMethods"));
+				// u4 attribute_length;
+				dout.writeInt(getBootstrapMethodsLength());
+				// u2 num_bootstrap_methods;
+				dout.writeShort(bootstrapMethods.size());
+				for (short[] bootstrapMethod : bootstrapMethods) {
+					// u2 bootstrap_method_ref;
+					dout.writeShort(bootstrapMethod[0]);
+					// u2 num_bootstrap_arguments;
+					dout.writeShort(bootstrapMethod.length - 1);
+					// u2 bootstrap_arguments[num_bootstrap_arguments];
+					for (int i = 1; i < bootstrapMethod.length; i++) {
+						dout.writeShort(bootstrapMethod[i]);
+					}
+				}
+			}
 			
 		} catch (IOException e) {
 			throw new InternalError("unexpected I/O Exception");
 		}
 		
-		return bout.toByteArray();
+		return bout.getBuffer();
+	}
+	
+	/**
+	 * Size of the "ClassFile" structure written by generateClassFile, the constant pool must be read only.
+	 */
+	private int getClassFileSize() {
+		// magic, minor_version, major_version
+		int size = 8 + cp.size();
+		// access_flags, this_class, super_class, interfaces_count, interfaces
+		size += 8 + 2 * interfaces.length;
+		// fields_count, fields
+		size += 2 + 8 * fields.size();
+		// methods_count
+		size += 2;
+		for (MethodInfo m : methods) {
+			size += m.size();
+		}
+		// attributes_count
+		size += 2;
+		if (!bootstrapMethods.isEmpty())
+			size += 6 + getBootstrapMethodsLength();
+		return size;
+	}
+	
+	/**
+	 * The attribute_length of the "BootstrapMethods" attribute.
+	 */
+	private int getBootstrapMethodsLength() {
+		int length = 2;
+		for (short[] bootstrapMethod : bootstrapMethods) {
+			length += 2 + 2 * bootstrapMethod.length;
+		}
+		return length;
+	}
+	
+	/**
+	 * Hex digest of the proxy methods: their fields, the interfaces they are found through, names, descriptors and
+	 * exception types.
+	 */
+	private String computeMemberSuffix() {
+		StringBuilder methods = new StringBuilder(methodResolution.name());
+		for (List<ProxyMethod> sigmethods : proxyMethods.values()) {
+			for (ProxyMethod pm : sigmethods) {
+				methods.append('|').append(pm.methodFieldName).append(' ').append(pm.fromClass.getName()).append('.')
+						.append(pm.methodName).append(pm.descriptor);
+				for (CtClass exceptionType : pm.exceptionTypes) {
+					methods.append(' ').append(exceptionType.getName());
+				}
+			}
+		}
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(methods.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalError(e.toString());
+		}
+		// the first 128 bits
+		StringBuilder suffix = new StringBuilder(32);
+		for (int i = 0; i < 16; i++) {
+			suffix.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return suffix.toString();
 	}
 	
 	/**
@@ -582,21 +870,11 @@ public class CtClassJavaProxyGenerator {
 	 * descriptor identifies the Method object (and thus the declaring class) that will be passed to the invocation
 	 * handler's "invoke" method for a given set of duplicate methods.
 	 */
-	private void addProxyMethod(CtMethod m, CtClass fromClass) {
-		String name = m.getName();
-		CtClass[] parameterTypes;
-		CtClass returnType;
-		CtClass[] exceptionTypes;
-		try {
-			parameterTypes = m.getParameterTypes();
-			returnType = m.getReturnType();
-			exceptionTypes = m.getExceptionTypes();
-		} catch (NotFoundException e) {
-			throw new RuntimeException(e);
-		}
+	private void addProxyMethod(AnalyzedMethod m, CtClass fromClass) {
+		CtClass returnType = m.returnType;
+		CtClass[] exceptionTypes = m.exceptionTypes;
 		
-		String sig = name + getParameterDescriptors(parameterTypes);
-		List<ProxyMethod> sigmethods = proxyMethods.get(sig);
+		List<ProxyMethod> sigmethods = proxyMethods.get(m.sig);
 		if (sigmethods != null) {
 			for (ProxyMethod pm : sigmethods) {
 				if (returnType == pm.returnType || returnType.getName().equals(pm.returnType.getName())) {
@@ -609,14 +887,39 @@ public class CtClassJavaProxyGenerator {
 					collectCompatibleTypes(pm.exceptionTypes, exceptionTypes, legalExceptions);
 					pm.exceptionTypes = new CtClass[legalExceptions.size()];
 					pm.exceptionTypes = legalExceptions.toArray(pm.exceptionTypes);
+					pm.catchList = null;
 					return;
 				}
 			}
 		} else {
 			sigmethods = new ArrayList<>(3);
-			proxyMethods.put(sig, sigmethods);
+			proxyMethods.put(m.sig, sigmethods);
 		}
-		sigmethods.add(new ProxyMethod(name, parameterTypes, returnType, exceptionTypes, fromClass));
+		sigmethods.add(new ProxyMethod(m, fromClass));
+	}
+	
+	/**
+	 * Returns the analysis of the declared methods of the interface, computing it if the interface has not been seen
+	 * before or has been redefined since.
+	 */
+	private static List<AnalyzedMethod> getInterfaceMethods(CtClass intf) {
+		MethodTableFingerprint fingerprint = ClassfileBufferSigantureTransformer.getRedefinedFingerprint(intf
+				.getName());
+		InterfaceMethods cached = interfaceMethods.get(intf.getName());
+		if (cached != null && cached.intf == intf
+				&& (fingerprint == null ? cached.fingerprint == null : fingerprint.equals(cached.fingerprint))) {
+			analysisHits.increment();
+			return cached.methods;
+		}
+		analysisMisses.increment();
+		CtMethod[] declaredMethods = intf.getDeclaredMethods();
+		List<AnalyzedMethod> methods = new ArrayList<>(declaredMethods.length);
+		for (CtMethod m : declaredMethods) {
+			methods.add(new AnalyzedMethod(m));
+		}
+		methods = Collections.unmodifiableList(methods);
+		interfaceMethods.put(intf.getName(), new InterfaceMethods(intf, fingerprint, methods));
+		return methods;
 	}
 	
 	/**
@@ -765,11 +1068,24 @@ public class CtClassJavaProxyGenerator {
 		public String descriptor;
 		public short maxStack;
 		public short maxLocals;
-		public ByteArrayOutputStream code = new ByteArrayOutputStream();
+		public ByteArrayOutputStream code;
 		public List<ExceptionTableEntry> exceptionTable = new ArrayList<ExceptionTableEntry>();
 		public short[] declaredExceptions;
+		/* entries of the StackMapTable attribute */
+		public ByteArrayOutputStream stackMapTable = new ByteArrayOutputStream();
+		public int stackMapFrames;
+		private int lastFramePc = -1;
 		
 		public MethodInfo(String name, String descriptor, int accessFlags) {
+			this(name, descriptor, accessFlags, 32);
+		}
+		
+		/**
+		 * @param codeSize
+		 *            expected size of the code, so that the code buffer does not need to grow
+		 */
+		public MethodInfo(String name, String descriptor, int accessFlags, int codeSize) {
+			this.code = new ByteArrayOutputStream(codeSize);
 			this.name = name;
 			this.descriptor = descriptor;
 			this.accessFlags = accessFlags;
@@ -782,6 +1098,45 @@ public class CtClassJavaProxyGenerator {
 			cp.getUtf8(descriptor);
 			cp.getUtf8("Code");
 			cp.getUtf8("Exceptions");
+			if (methodResolution == MethodResolution.INVOKEDYNAMIC)
+				cp.getUtf8("StackMapTable");
+		}
+		
+		/**
+		 * Add a stack map frame for a branch target that has the locals of the method entry and one object on the
+		 * operand stack, like an exception handler. Frames must be added in the order of their offsets.
+		 */
+		public void addSameLocalsFrame(int pc, short stackItemClass) throws IOException {
+			DataOutputStream out = new DataOutputStream(stackMapTable);
+			// same_locals_1_stack_item_frame_extended, see JVMS section 4.7.4.
+			out.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+			// u2 offset_delta;
+			out.writeShort(pc - lastFramePc - 1);
+			// verification_type_info stack[1];
+			out.writeByte(ITEM_Object);
+			out.writeShort(stackItemClass);
+			lastFramePc = pc;
+			stackMapFrames++;
+		}
+		
+		/**
+		 * Size of the "method_info" structure written by write.
+		 */
+		public int size() {
+			// access_flags, name_index, descriptor_index, attributes_count
+			int size = 8;
+			// "Code" attribute
+			size += 6 + getCodeLength();
+			// "Exceptions" attribute
+			size += 8 + 2 * declaredExceptions.length;
+			return size;
+		}
+		
+		/**
+		 * The attribute_length of the "Code" attribute.
+		 */
+		private int getCodeLength() {
+			return 12 + code.size() + 8 * exceptionTable.size() + (stackMapFrames > 0 ? 8 + stackMapTable.size() : 0);
 		}
 		
 		public void write(DataOutputStream out) throws IOException {
@@ -802,7 +1157,7 @@ public class CtClassJavaProxyGenerator {
 			// u2 attribute_name_index;
 			out.writeShort(cp.getUtf8("Code"));
 			// u4 attribute_length;
-			out.writeInt(12 + code.size() + 8 * exceptionTable.size());
+			out.writeInt(getCodeLength());
 			// u2 max_stack;
 			out.writeShort(maxStack);
 			// u2 max_locals;
@@ -823,8 +1178,24 @@ public class CtClassJavaProxyGenerator {
 				// u2 catch_type;
 				out.writeShort(e.catchType);
 			}
-			// u2 attributes_count;
-			out.writeShort(0);
+			if (stackMapFrames > 0) {
+				// u2 attributes_count;
+				out.writeShort(1);
+				
+				// write "StackMapTable" attribute. See JVMS section 4.7.4.
+				
+				// u2 attribute_name_index;
+				out.writeShort(cp.getUtf8("StackMapTable"));
+				// u4 attribute_length;
+				out.writeInt(2 + stackMapTable.size());
+				// u2 number_of_entries;
+				out.writeShort(stackMapFrames);
+				// stack_map_frame entries[number_of_entries];
+				stackMapTable.writeTo(out);
+			} else {
+				// u2 attributes_count;
+				out.writeShort(0);
+			}
 			
 			// write "Exceptions" attribute. See JVMS section 4.7.4.
 			
@@ -842,6 +1213,47 @@ public class CtClassJavaProxyGenerator {
 		
 	}
 	
+	/**
+	 * The types and descriptors of an interface method, computed once and shared by the generators of all proxies of
+	 * the interface. Must not be modified.
+	 */
+	private static class AnalyzedMethod {
+		private final String name;
+		private final CtClass[] parameterTypes;
+		private final CtClass returnType;
+		private final CtClass[] exceptionTypes;
+		/* name and parameter descriptors, the key of duplicate methods */
+		private final String sig;
+		private final String descriptor;
+		private final List<CtClass> catchList;
+		
+		public AnalyzedMethod(CtMethod m) {
+			name = m.getName();
+			try {
+				parameterTypes = m.getParameterTypes();
+				returnType = m.getReturnType();
+				exceptionTypes = m.getExceptionTypes();
+			} catch (NotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			sig = name + getParameterDescriptors(parameterTypes);
+			descriptor = getMethodDescriptor(parameterTypes, returnType);
+			catchList = Collections.unmodifiableList(computeUniqueCatchList(exceptionTypes));
+		}
+	}
+	
+	private static class InterfaceMethods {
+		private final CtClass intf;
+		private final MethodTableFingerprint fingerprint;
+		private final List<AnalyzedMethod> methods;
+		
+		public InterfaceMethods(CtClass intf, MethodTableFingerprint fingerprint, List<AnalyzedMethod> methods) {
+			this.intf = intf;
+			this.fingerprint = fingerprint;
+			this.methods = methods;
+		}
+	}
+	
 	/**
 	 * A ProxyMethod object represents a proxy method in the proxy class being generated: a method whose implementation
 	 * will encode and dispatch invocations to the proxy instance's invocation handler.
@@ -857,13 +1269,17 @@ public class CtClassJavaProxyGenerator {
 		public CtClass[] exceptionTypes;
 		public CtClass fromClass;
 		public String methodFieldName;
-		
-		private ProxyMethod(String methodName, CtClass[] parameterTypes, CtClass returnType, CtClass[] exceptionTypes,
-				CtClass fromClass) {
-			this.methodName = methodName;
-			this.parameterTypes = parameterTypes;
-			this.returnType = returnType;
-			this.exceptionTypes = exceptionTypes;
+		public String descriptor;
+		/* catch list of the exception types, null if they have been reduced for a duplicate method */
+		public List<CtClass> catchList;
+		
+		private ProxyMethod(AnalyzedMethod method, CtClass fromClass) {
+			this.methodName = method.name;
+			this.parameterTypes = method.parameterTypes;
+			this.returnType = method.returnType;
+			this.exceptionTypes = method.exceptionTypes;
+			this.descriptor = method.descriptor;
+			this.catchList = method.catchList;
 			this.fromClass = fromClass;
 			this.methodFieldName = "m" + proxyMethodCount++;
 		}
@@ -872,8 +1288,10 @@ public class CtClassJavaProxyGenerator {
 		 * Return a MethodInfo object for this method, including generating the code and exception table entry.
 		 */
 		private MethodInfo generateMethod() throws IOException {
-			String desc = getMethodDescriptor(parameterTypes, returnType);
-			MethodInfo minfo = new MethodInfo(methodName, desc, ACC_PUBLIC | ACC_FINAL);
+			String desc = descriptor;
+			// about 10 bytes per boxed argument and 40 for the call and the exception handlers
+			MethodInfo minfo = new MethodInfo(methodName, desc, ACC_PUBLIC | ACC_FINAL,
+					64 + 10 * parameterTypes.length);
 			
 			int[] parameterSlot = new int[parameterTypes.length];
 			int nextSlot = 1;
@@ -885,12 +1303,14 @@ public class CtClassJavaProxyGenerator {
 			short pc, tryBegin = 0, tryEnd;
 			
 			DataOutputStream out = new DataOutputStream(minfo.code);
-			out.writeByte(opc_getstatic);
-			out.writeShort(cp.getFieldRef(dotToSlash(className), initFieldName, "Z"));
-			out.writeByte(opc_ifne);
-			out.writeShort(6);
-			out.writeByte(opc_invokestatic);
-			out.writeShort(cp.getMethodRef(dotToSlash(className), initMethodName, "()V"));
+			if (methodResolution == MethodResolution.EAGER) {
+				out.writeByte(opc_getstatic);
+				out.writeShort(cp.getFieldRef(dotToSlash(className), initFieldName, "Z"));
+				out.writeByte(opc_ifne);
+				out.writeShort(6);
+				out.writeByte(opc_invokestatic);
+				out.writeShort(cp.getMethodRef(dotToSlash(className), initMethodName, "()V"));
+			}
 			
 			code_aload(0, out);
 			
@@ -899,8 +1319,26 @@ public class CtClassJavaProxyGenerator {
 			
 			code_aload(0, out);
 			
-			out.writeByte(opc_getstatic);
-			out.writeShort(cp.getFieldRef(dotToSlash(className), methodFieldName, "Ljava/lang/reflect/Method;"));
+			if (methodResolution == MethodResolution.INVOKEDYNAMIC) {
+				out.writeByte(opc_invokedynamic);
+				out.writeShort(cp.getInvokeDynamic(getBootstrapMethodIndex(), "method",
+						"()Ljava/lang/reflect/Method;"));
+				out.writeShort(0);
+			} else {
+				out.writeByte(opc_getstatic);
+				out.writeShort(cp.getFieldRef(dotToSlash(className), methodFieldName, "Ljava/lang/reflect/Method;"));
+			}
+			
+			if (methodResolution == MethodResolution.LAZY) {
+				// if the field is null, replace it on the stack with the result of the resolver
+				out.writeByte(opc_dup);
+				out.writeByte(opc_ifnonnull);
+				out.writeShort(7);
+				out.writeByte(opc_pop);
+				out.writeByte(opc_invokestatic);
+				out.writeShort(cp.getMethodRef(dotToSlash(className), getResolverName(),
+						"()Ljava/lang/reflect/Method;"));
+			}
 			
 			if (parameterTypes.length > 0) {
 				
@@ -943,13 +1381,16 @@ public class CtClassJavaProxyGenerator {
 			
 			tryEnd = pc = (short) minfo.code.size();
 			
-			List<CtClass> catchList = computeUniqueCatchList(exceptionTypes);
+			if (catchList == null)
+				catchList = computeUniqueCatchList(exceptionTypes);
 			if (catchList.size() > 0) {
 				
 				for (CtClass ex : catchList) {
 					minfo.exceptionTable.add(new ExceptionTableEntry(tryBegin, tryEnd, pc, cp.getClass(dotToSlash(ex
 							.getName()))));
 				}
+				if (methodResolution == MethodResolution.INVOKEDYNAMIC)
+					minfo.addSameLocalsFrame(pc, cp.getClass("java/lang/Throwable"));
 				
 				out.writeByte(opc_athrow);
 				
@@ -957,6 +1398,8 @@ public class CtClassJavaProxyGenerator {
 				
 				minfo.exceptionTable.add(new ExceptionTableEntry(tryBegin, tryEnd, pc, cp
 						.getClass("java/lang/Throwable")));
+				if (methodResolution == MethodResolution.INVOKEDYNAMIC)
+					minfo.addSameLocalsFrame(pc, cp.getClass("java/lang/Throwable"));
 				
 				code_astore(localSlot0, out);
 				
@@ -989,6 +1432,45 @@ public class CtClassJavaProxyGenerator {
 			return minfo;
 		}
 		
+		/**
+		 * Return a MethodInfo object for the static method that resolves the Method object of this method, stores it
+		 * in the static field and returns it.
+		 */
+		private MethodInfo generateResolver() throws IOException {
+			MethodInfo minfo = new MethodInfo(getResolverName(), "()Ljava/lang/reflect/Method;", ACC_PRIVATE
+					| ACC_STATIC);
+			
+			DataOutputStream out = new DataOutputStream(minfo.code);
+			
+			codeFieldInitialization(out);
+			
+			out.writeByte(opc_getstatic);
+			out.writeShort(cp.getFieldRef(dotToSlash(className), methodFieldName, "Ljava/lang/reflect/Method;"));
+			
+			out.writeByte(opc_areturn);
+			
+			codeResolutionExceptionHandlers(minfo, out, 0);
+			return minfo;
+		}
+		
+		private String getResolverName() {
+			return "resolve" + methodFieldName;
+		}
+		
+		/**
+		 * Add the BootstrapMethods entry of the invokedynamic call site of this method. The bootstrap method gets the
+		 * class, name and parameter types to look up the Method object with.
+		 */
+		private short getBootstrapMethodIndex() {
+			short[] bootstrapMethod = {
+					cp.getMethodHandle(REF_invokeStatic,
+							cp.getMethodRef(dotToSlash(className), bootstrapMethodName, bootstrapMethodDesc)),
+					cp.getClass(dotToSlash(fromClass.getName())), cp.getString(methodName),
+					cp.getMethodType(descriptor) };
+			bootstrapMethods.add(bootstrapMethod);
+			return (short) (bootstrapMethods.size() - 1);
+		}
+		
 		/**
 		 * Generate code for wrapping an argument of the given type whose value can be found at the specified local
 		 * variable index, in order for it to be passed (as an Object) to the invocation handler's "invoke" method. The
@@ -1012,7 +1494,11 @@ public class CtClassJavaProxyGenerator {
 				}
 				
 				out.writeByte(opc_invokestatic);
-				out.writeShort(cp.getMethodRef(prim.wrapperClassName, "valueOf", prim.wrapperValueOfDesc));
+				if (cacheArgumentBoxes && (type == CtClass.intType || type == CtClass.longType)) {
+					out.writeShort(cp.getMethodRef(proxyArgumentsClassName, "valueOf", prim.wrapperValueOfDesc));
+				} else {
+					out.writeShort(cp.getMethodRef(prim.wrapperClassName, "valueOf", prim.wrapperValueOfDesc));
+				}
 				
 			} else {
 				
@@ -1141,10 +1627,7 @@ public class CtClassJavaProxyGenerator {
 	 * Generate the static initializer method for the proxy class.
 	 */
 	private MethodInfo generateStaticInitializer() throws IOException {
-		MethodInfo minfo = new MethodInfo(initMethodName, "()V", ACC_STATIC);
-		
-		int localSlot0 = 1;
-		short pc, tryBegin = 0, tryEnd;
+		MethodInfo minfo = new MethodInfo(initMethodName, "()V", ACC_STATIC, 64 + 32 * proxyMethodCount);
 		
 		DataOutputStream out = new DataOutputStream(minfo.code);
 		out.writeByte(opc_iconst_1);
@@ -1159,6 +1642,64 @@ public class CtClassJavaProxyGenerator {
 		
 		out.writeByte(opc_return);
 		
+		codeResolutionExceptionHandlers(minfo, out, 0);
+		return minfo;
+	}
+	
+	/**
+	 * Generate the bootstrap method of the invokedynamic call sites of the proxy methods. It looks up the Method object
+	 * and binds the call site to it as a constant, so the JIT can fold the Method into the compiled proxy method.
+	 */
+	private MethodInfo generateBootstrapMethod() throws IOException {
+		MethodInfo minfo = new MethodInfo(bootstrapMethodName, bootstrapMethodDesc, ACC_PRIVATE | ACC_STATIC);
+		
+		DataOutputStream out = new DataOutputStream(minfo.code);
+		
+		out.writeByte(opc_new);
+		out.writeShort(cp.getClass("java/lang/invoke/ConstantCallSite"));
+		
+		out.writeByte(opc_dup);
+		
+		code_ldc(cp.getClass("java/lang/reflect/Method"), out);
+		
+		// declaringClass.getMethod(name, methodType.parameterArray())
+		code_aload(3, out);
+		code_aload(4, out);
+		code_aload(5, out);
+		
+		out.writeByte(opc_invokevirtual);
+		out.writeShort(cp.getMethodRef("java/lang/invoke/MethodType", "parameterArray", "()[Ljava/lang/Class;"));
+		
+		out.writeByte(opc_invokevirtual);
+		out.writeShort(cp.getMethodRef("java/lang/Class", "getMethod", "(Ljava/lang/String;[Ljava/lang/Class;)"
+				+ "Ljava/lang/reflect/Method;"));
+		
+		out.writeByte(opc_invokestatic);
+		out.writeShort(cp.getMethodRef("java/lang/invoke/MethodHandles", "constant",
+				"(Ljava/lang/Class;Ljava/lang/Object;)Ljava/lang/invoke/MethodHandle;"));
+		
+		out.writeByte(opc_invokespecial);
+		out.writeShort(cp.getMethodRef("java/lang/invoke/ConstantCallSite", "<init>",
+				"(Ljava/lang/invoke/MethodHandle;)V"));
+		
+		out.writeByte(opc_areturn);
+		
+		minfo.maxStack = 6;
+		minfo.maxLocals = 6;
+		// a failure is wrapped in a BootstrapMethodError by the JVM
+		minfo.declaredExceptions = new short[] { cp.getClass("java/lang/NoSuchMethodException") };
+		
+		return minfo;
+	}
+	
+	/**
+	 * Generate the handlers that turn the exceptions of resolving Method objects into linkage errors. They cover all
+	 * of the code written so far, the method has no locals before the given slot.
+	 */
+	private void codeResolutionExceptionHandlers(MethodInfo minfo, DataOutputStream out, int localSlot0)
+			throws IOException {
+		short pc, tryBegin = 0, tryEnd;
+		
 		tryEnd = pc = (short) minfo.code.size();
 		
 		minfo.exceptionTable.add(new ExceptionTableEntry(tryBegin, tryEnd, pc, cp
@@ -1210,8 +1751,6 @@ public class CtClassJavaProxyGenerator {
 		minfo.maxStack = 10;
 		minfo.maxLocals = (short) (localSlot0 + 1);
 		minfo.declaredExceptions = new short[0];
-		
-		return minfo;
 	}
 	
 	/*
@@ -1607,6 +2146,38 @@ public class CtClassJavaProxyGenerator {
 		}
 	}
 	
+	/**
+	 * Output stream into an array of a size known in advance, the array is returned without copying.
+	 */
+	private static class FixedSizeOutputStream extends OutputStream {
+		private final byte[] buffer;
+		private int count;
+		
+		public FixedSizeOutputStream(int size) {
+			buffer = new byte[size];
+		}
+		
+		@Override
+		public void write(int b) {
+			buffer[count++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+		
+		/**
+		 * Returns the written array, which must be full.
+		 */
+		public byte[] getBuffer() {
+			if (count != buffer.length)
+				throw new InternalError("class file size " + count + " differs from computed size " + buffer.length);
+			return buffer;
+		}
+	}
+	
 	/**
 	 * A ConstantPool object represents the constant pool of a class file being generated. This representation of a
 	 * constant pool is designed specifically for use by ProxyGenerator; in particular, it assumes that constant pool
@@ -1625,20 +2196,48 @@ public class CtClassJavaProxyGenerator {
 		 * list of constant pool entries, in constant pool index order.
 		 * 
 		 * This list is used when writing the constant pool to a stream and for assigning the next index value. Note
-		 * that element 0 of this list corresponds to constant pool index 1.
+		 * that element 0 of this list corresponds to constant pool index 1 + the number of entries of the prefix.
 		 */
 		private List<Entry> pool = new ArrayList<>(32);
 		
+		/** read only pool whose entries come first, shared by many pools, or null */
+		private final ConstantPool prefix;
+		/** number of entries of the prefix */
+		private final int prefixCount;
+		/** the written entries of the prefix */
+		private final byte[] prefixBytes;
+		
 		/**
-		 * maps constant pool data of all types to constant pool indexes.
-		 * 
-		 * This map is used to look up the index of an existing entry for values of all types.
+		 * maps the values of entries that contain a direct value to constant pool indexes.
 		 */
-		private Map<Object, Short> map = new HashMap<>(16);
+		private ValueIndexTable values = new ValueIndexTable(16);
+		
+		/**
+		 * maps the tag and indexes of entries that contain references to other entries to constant pool indexes.
+		 */
+		private IndirectIndexTable indirects = new IndirectIndexTable(16);
 		
 		/** true if no new constant pool entries may be added */
 		private boolean readOnly = false;
 		
+		public ConstantPool() {
+			this.prefix = null;
+			this.prefixCount = 0;
+			this.prefixBytes = null;
+		}
+		
+		/**
+		 * Creates a pool that starts with the entries of the prefix. The prefix must be read only, prefixBytes are its
+		 * written entries.
+		 */
+		public ConstantPool(ConstantPool prefix, byte[] prefixBytes) {
+			if (!prefix.readOnly || prefix.prefix != null)
+				throw new IllegalArgumentException("prefix must be a read only pool without a prefix");
+			this.prefix = prefix;
+			this.prefixCount = prefix.pool.size();
+			this.prefixBytes = prefixBytes;
+		}
+		
 		/**
 		 * Get or assign the index for a CONSTANT_Utf8 entry.
 		 */
@@ -1668,7 +2267,7 @@ public class CtClassJavaProxyGenerator {
 		 */
 		public short getClass(String name) {
 			short utf8Index = getUtf8(name);
-			return getIndirect(new IndirectEntry(CONSTANT_CLASS, utf8Index));
+			return getIndirect(CONSTANT_CLASS, utf8Index);
 		}
 		
 		/**
@@ -1676,7 +2275,7 @@ public class CtClassJavaProxyGenerator {
 		 */
 		public short getString(String s) {
 			short utf8Index = getUtf8(s);
-			return getIndirect(new IndirectEntry(CONSTANT_STRING, utf8Index));
+			return getIndirect(CONSTANT_STRING, utf8Index);
 		}
 		
 		/**
@@ -1685,7 +2284,7 @@ public class CtClassJavaProxyGenerator {
 		public short getFieldRef(String className, String name, String descriptor) {
 			short classIndex = getClass(className);
 			short nameAndTypeIndex = getNameAndType(name, descriptor);
-			return getIndirect(new IndirectEntry(CONSTANT_FIELD, classIndex, nameAndTypeIndex));
+			return getIndirect(CONSTANT_FIELD, classIndex, nameAndTypeIndex);
 		}
 		
 		/**
@@ -1694,7 +2293,7 @@ public class CtClassJavaProxyGenerator {
 		public short getMethodRef(String className, String name, String descriptor) {
 			short classIndex = getClass(className);
 			short nameAndTypeIndex = getNameAndType(name, descriptor);
-			return getIndirect(new IndirectEntry(CONSTANT_METHOD, classIndex, nameAndTypeIndex));
+			return getIndirect(CONSTANT_METHOD, classIndex, nameAndTypeIndex);
 		}
 		
 		/**
@@ -1703,7 +2302,7 @@ public class CtClassJavaProxyGenerator {
 		public short getInterfaceMethodRef(String className, String name, String descriptor) {
 			short classIndex = getClass(className);
 			short nameAndTypeIndex = getNameAndType(name, descriptor);
-			return getIndirect(new IndirectEntry(CONSTANT_INTERFACEMETHOD, classIndex, nameAndTypeIndex));
+			return getIndirect(CONSTANT_INTERFACEMETHOD, classIndex, nameAndTypeIndex);
 		}
 		
 		/**
@@ -1712,7 +2311,61 @@ public class CtClassJavaProxyGenerator {
 		public short getNameAndType(String name, String descriptor) {
 			short nameIndex = getUtf8(name);
 			short descriptorIndex = getUtf8(descriptor);
-			return getIndirect(new IndirectEntry(CONSTANT_NAMEANDTYPE, nameIndex, descriptorIndex));
+			return getIndirect(CONSTANT_NAMEANDTYPE, nameIndex, descriptorIndex);
+		}
+		
+		/**
+		 * Get or assign the index for a CONSTANT_MethodHandle entry.
+		 */
+		public short getMethodHandle(int referenceKind, short referenceIndex) {
+			return getIndirect(CONSTANT_METHODHANDLE, (short) referenceKind, referenceIndex);
+		}
+		
+		/**
+		 * Get or assign the index for a CONSTANT_MethodType entry.
+		 */
+		public short getMethodType(String descriptor) {
+			short descriptorIndex = getUtf8(descriptor);
+			return getIndirect(CONSTANT_METHODTYPE, descriptorIndex);
+		}
+		
+		/**
+		 * Get or assign the index for a CONSTANT_InvokeDynamic entry.
+		 */
+		public short getInvokeDynamic(short bootstrapMethodIndex, String name, String descriptor) {
+			short nameAndTypeIndex = getNameAndType(name, descriptor);
+			return getIndirect(CONSTANT_INVOKEDYNAMIC, bootstrapMethodIndex, nameAndTypeIndex);
+		}
+		
+		/**
+		 * Size of the constant_pool_count and constant_pool items written by write.
+		 */
+		public int size() {
+			int size = 2;
+			if (prefix != null)
+				size += prefixBytes.length;
+			for (Entry e : pool) {
+				size += e.size();
+			}
+			return size;
+		}
+		
+		/**
+		 * The written entries of a read only pool, without the count.
+		 */
+		public byte[] writeEntries() {
+			if (!readOnly)
+				throw new IllegalStateException("entries can still be added");
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			DataOutputStream dataOut = new DataOutputStream(bout);
+			try {
+				for (Entry e : pool) {
+					e.write(dataOut);
+				}
+			} catch (IOException e) {
+				throw new InternalError("unexpected I/O Exception");
+			}
+			return bout.toByteArray();
 		}
 		
 		/**
@@ -1735,8 +2388,10 @@ public class CtClassJavaProxyGenerator {
 			DataOutputStream dataOut = new DataOutputStream(out);
 			
 			// constant_pool_count: number of entries plus one
-			dataOut.writeShort(pool.size() + 1);
+			dataOut.writeShort(prefixCount + pool.size() + 1);
 			
+			if (prefix != null)
+				dataOut.write(prefixBytes);
 			for (Entry e : pool) {
 				e.write(dataOut);
 			}
@@ -1751,10 +2406,10 @@ public class CtClassJavaProxyGenerator {
 			 * Note that this way of determining the index of the added entry is wrong if this pool supports
 			 * CONSTANT_Long or CONSTANT_Double entries.
 			 */
-			if (pool.size() >= 65535) {
+			if (prefixCount + pool.size() >= 65535) {
 				throw new IllegalArgumentException("constant pool size limit exceeded");
 			}
-			return (short) pool.size();
+			return (short) (prefixCount + pool.size());
 		}
 		
 		/**
@@ -1765,15 +2420,17 @@ public class CtClassJavaProxyGenerator {
 		 * java.lang.Long CONSTANT_Long java.lang.Double CONSTANT_DOUBLE
 		 */
 		private short getValue(Object key) {
-			Short index = map.get(key);
-			if (index != null) {
-				return index.shortValue();
+			short index = prefix != null ? prefix.values.get(key) : 0;
+			if (index == 0)
+				index = values.get(key);
+			if (index != 0) {
+				return index;
 			} else {
 				if (readOnly) {
 					throw new InternalError("late constant pool addition: " + key);
 				}
 				short i = addEntry(new ValueEntry(key));
-				map.put(key, new Short(i));
+				values.put(key, i);
 				return i;
 			}
 		}
@@ -1781,16 +2438,26 @@ public class CtClassJavaProxyGenerator {
 		/**
 		 * Get or assign the index for an entry of a type that contains references to other constant pool entries.
 		 */
-		private short getIndirect(IndirectEntry e) {
-			Short index = map.get(e);
-			if (index != null) {
-				return index.shortValue();
+		private short getIndirect(int tag, short index0) {
+			return getIndirect(tag, index0, (short) 0);
+		}
+		
+		/**
+		 * Get or assign the index for an entry of a type that contains references to other constant pool entries.
+		 */
+		private short getIndirect(int tag, short index0, short index1) {
+			long key = IndirectIndexTable.getKey(tag, index0, index1);
+			short index = prefix != null ? prefix.indirects.get(key) : 0;
+			if (index == 0)
+				index = indirects.get(key);
+			if (index != 0) {
+				return index;
 			} else {
 				if (readOnly) {
 					throw new InternalError("late constant pool addition");
 				}
-				short i = addEntry(e);
-				map.put(e, new Short(i));
+				short i = addEntry(new IndirectEntry(tag, index0, index1));
+				indirects.put(key, i);
 				return i;
 			}
 		}
@@ -1801,6 +2468,11 @@ public class CtClassJavaProxyGenerator {
 		 */
 		private static abstract class Entry {
 			public abstract void write(DataOutputStream out) throws IOException;
+			
+			/**
+			 * Number of bytes written by write.
+			 */
+			public abstract int size();
 		}
 		
 		/**
@@ -1837,34 +2509,55 @@ public class CtClassJavaProxyGenerator {
 					throw new InternalError("bogus value entry: " + value);
 				}
 			}
+			
+			public int size() {
+				if (value instanceof String) {
+					return 3 + getUtfLength((String) value);
+				} else if (value instanceof Integer || value instanceof Float) {
+					return 5;
+				} else if (value instanceof Long || value instanceof Double) {
+					return 9;
+				} else {
+					throw new InternalError("bogus value entry: " + value);
+				}
+			}
+			
+			/**
+			 * Length of the string in the modified UTF-8 encoding of DataOutputStream.writeUTF.
+			 */
+			private static int getUtfLength(String s) {
+				int length = 0;
+				for (int i = 0; i < s.length(); i++) {
+					char c = s.charAt(i);
+					if (c >= 0x0001 && c <= 0x007F) {
+						length++;
+					} else if (c > 0x07FF) {
+						length += 3;
+					} else {
+						length += 2;
+					}
+				}
+				return length;
+			}
 		}
 		
 		/**
 		 * IndirectEntry represents a constant pool entry of a type that references other constant pool entries, i.e.,
 		 * the following types:
 		 * 
-		 * CONSTANT_Class, CONSTANT_String, CONSTANT_Fieldref, CONSTANT_Methodref, CONSTANT_InterfaceMethodref, and
-		 * CONSTANT_NameAndType.
+		 * CONSTANT_Class, CONSTANT_String, CONSTANT_Fieldref, CONSTANT_Methodref, CONSTANT_InterfaceMethodref,
+		 * CONSTANT_NameAndType, CONSTANT_MethodHandle, CONSTANT_MethodType and CONSTANT_InvokeDynamic.
 		 * 
 		 * Each of these entry types contains either one or two indexes of other constant pool entries.
 		 * 
-		 * IndirectEntry objects are used as the keys for their entries in the Map "map", so the hashCode and equals
-		 * methods are overridden to allow matching.
+		 * IndirectEntry objects are only used for writing, the entries are looked up by their tag and indexes in the
+		 * IndirectIndexTable.
 		 */
 		private static class IndirectEntry extends Entry {
 			private int tag;
 			private short index0;
 			private short index1;
 			
-			/**
-			 * Construct an IndirectEntry for a constant pool entry type that contains one index of another entry.
-			 */
-			public IndirectEntry(int tag, short index) {
-				this.tag = tag;
-				this.index0 = index;
-				this.index1 = 0;
-			}
-			
 			/**
 			 * Construct an IndirectEntry for a constant pool entry type that contains two indexes for other entries.
 			 */
@@ -1876,29 +2569,157 @@ public class CtClassJavaProxyGenerator {
 			
 			public void write(DataOutputStream out) throws IOException {
 				out.writeByte(tag);
+				/*
+				 * The reference kind of a method handle is a single byte.
+				 */
+				if (tag == CONSTANT_METHODHANDLE) {
+					out.writeByte(index0);
+					out.writeShort(index1);
+					return;
+				}
 				out.writeShort(index0);
 				/*
 				 * If this entry type contains two indexes, write out the second, too.
 				 */
 				if (tag == CONSTANT_FIELD || tag == CONSTANT_METHOD || tag == CONSTANT_INTERFACEMETHOD
-						|| tag == CONSTANT_NAMEANDTYPE) {
+						|| tag == CONSTANT_NAMEANDTYPE || tag == CONSTANT_INVOKEDYNAMIC) {
 					out.writeShort(index1);
 				}
 			}
 			
-			public int hashCode() {
-				return tag + index0 + index1;
+			public int size() {
+				if (tag == CONSTANT_METHODHANDLE)
+					return 4;
+				if (tag == CONSTANT_FIELD || tag == CONSTANT_METHOD || tag == CONSTANT_INTERFACEMETHOD
+						|| tag == CONSTANT_NAMEANDTYPE || tag == CONSTANT_INVOKEDYNAMIC)
+					return 5;
+				return 3;
 			}
 			
-			public boolean equals(Object obj) {
-				if (obj instanceof IndirectEntry) {
-					IndirectEntry other = (IndirectEntry) obj;
-					if (tag == other.tag && index0 == other.index0 && index1 == other.index1) {
-						return true;
-					}
+		}
+		
+		/**
+		 * Open addressing table from the values of entries to their indexes, with linear probing. The indexes are kept
+		 * unboxed, 0 marks a free slot, as it is not a valid constant pool index.
+		 */
+		private static class ValueIndexTable {
+			private Object[] keys;
+			private short[] indexes;
+			private int size;
+			
+			public ValueIndexTable(int capacity) {
+				keys = new Object[capacity];
+				indexes = new short[capacity];
+			}
+			
+			/**
+			 * Returns the index of the value, or 0 if there is none.
+			 */
+			public short get(Object key) {
+				int mask = keys.length - 1;
+				for (int i = mix(key.hashCode()) & mask;; i = (i + 1) & mask) {
+					if (indexes[i] == 0)
+						return 0;
+					if (keys[i].equals(key))
+						return indexes[i];
+				}
+			}
+			
+			public void put(Object key, short index) {
+				if (2 * (size + 1) > keys.length)
+					resize();
+				insert(key, index);
+				size++;
+			}
+			
+			private void insert(Object key, short index) {
+				int mask = keys.length - 1;
+				int i = mix(key.hashCode()) & mask;
+				while (indexes[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = key;
+				indexes[i] = index;
+			}
+			
+			private void resize() {
+				Object[] oldKeys = keys;
+				short[] oldIndexes = indexes;
+				keys = new Object[oldKeys.length * 2];
+				indexes = new short[oldKeys.length * 2];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldIndexes[i] != 0)
+						insert(oldKeys[i], oldIndexes[i]);
+				}
+			}
+		}
+		
+		/**
+		 * Open addressing table from the tag and indexes of indirect entries, packed into a long, to their indexes. The
+		 * indexes are kept unboxed, 0 marks a free slot, as it is not a valid constant pool index.
+		 */
+		private static class IndirectIndexTable {
+			private long[] keys;
+			private short[] indexes;
+			private int size;
+			
+			public IndirectIndexTable(int capacity) {
+				keys = new long[capacity];
+				indexes = new short[capacity];
+			}
+			
+			public static long getKey(int tag, short index0, short index1) {
+				return ((long) tag << 32) | ((index0 & 0xFFFFL) << 16) | (index1 & 0xFFFFL);
+			}
+			
+			/**
+			 * Returns the index of the entry, or 0 if there is none.
+			 */
+			public short get(long key) {
+				int mask = keys.length - 1;
+				for (int i = mix((int) (key ^ (key >>> 32))) & mask;; i = (i + 1) & mask) {
+					if (indexes[i] == 0)
+						return 0;
+					if (keys[i] == key)
+						return indexes[i];
+				}
+			}
+			
+			public void put(long key, short index) {
+				if (2 * (size + 1) > keys.length)
+					resize();
+				insert(key, index);
+				size++;
+			}
+			
+			private void insert(long key, short index) {
+				int mask = keys.length - 1;
+				int i = mix((int) (key ^ (key >>> 32))) & mask;
+				while (indexes[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = key;
+				indexes[i] = index;
+			}
+			
+			private void resize() {
+				long[] oldKeys = keys;
+				short[] oldIndexes = indexes;
+				keys = new long[oldKeys.length * 2];
+				indexes = new short[oldKeys.length * 2];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldIndexes[i] != 0)
+						insert(oldKeys[i], oldIndexes[i]);
 				}
-				return false;
 			}
 		}
+		
+		/**
+		 * Spreads the bits of a hash code, so that similar keys do not end up in neighbouring slots.
+		 */
+		private static int mix(int h) {
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
 	}
 }
@@ -1,14 +1,12 @@
 package io.github.proxyhotswap.java;
 
 import io.github.proxyhotswap.AbstractProxyTransformer;
-import io.github.proxyhotswap.TransformationState;
 import io.github.proxyhotswap.javassist.CtClass;
 import io.github.proxyhotswap.javassist.CtMethod;
 import io.github.proxyhotswap.javassist.Modifier;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
-import java.util.concurrent.ConcurrentHashMap;
 
 import sun.misc.ProxyGenerator;
 
@@ -19,7 +17,7 @@ import sun.misc.ProxyGenerator;
 public class JavaProxyTransformer extends AbstractProxyTransformer implements ClassFileTransformer {
 	
 	public JavaProxyTransformer(Instrumentation inst) {
-		super(inst, new ConcurrentHashMap<Class<?>, TransformationState>());
+		super(inst);
 	}
 	
 	@Override
@@ -31,12 +29,15 @@ public class JavaProxyTransformer extends AbstractProxyTransformer implements Cl
 		return method.getName() + "();";
 	}
 	
-	protected boolean isProxy(String className, Class<?> classBeingRedefined, byte[] classfileBuffer) {
-		return className.startsWith("com/sun/proxy/$Proxy");
+	protected boolean isProxy(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			byte[] classfileBuffer) {
+		return JdkProxies.isProxy(className, classfileBuffer);
 	}
 	
 	@Override
 	protected byte[] getNewByteCode(ClassLoader loader, String className, Class<?> classBeingRedefined) {
-		return ProxyGenerator.generateProxyClass(className, classBeingRedefined.getInterfaces());
+		// the flags java.lang.reflect.Proxy generates the class with, it is not public for non-public interfaces
+		int accessFlags = classBeingRedefined.getModifiers() & (Modifier.PUBLIC | Modifier.FINAL);
+		return ProxyGenerator.generateProxyClass(className, classBeingRedefined.getInterfaces(), accessFlags);
 	}
 }
@@ -1,46 +1,121 @@
 package io.github.proxyhotswap.java;
 
+import io.github.proxyhotswap.ClassView;
+import io.github.proxyhotswap.ClassViewTransformer;
+import io.github.proxyhotswap.ClassfileScanner;
+import io.github.proxyhotswap.MethodTableFingerprint;
 import io.github.proxyhotswap.ClassfileBufferSigantureTransformer;
+import io.github.proxyhotswap.ProxyBytecodeCache;
+import io.github.proxyhotswap.ProxyIndex;
 import io.github.proxyhotswap.TransformationUtils;
-import io.github.proxyhotswap.javassist.ClassPool;
 import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Erki Ehtla
  * 
  */
-public class JavassistSimpleJavaProxyTransformer implements ClassFileTransformer {
+public class JavassistSimpleJavaProxyTransformer implements ClassFileTransformer, ClassViewTransformer {
 	protected static final String INIT_FIELD_PREFIX = "initCalled";
-	protected static final ClassPool classPool = TransformationUtils.getClassPool();
+	
+	private static final Timer transformTimer = Metrics.timer("transform.JavassistSimpleJavaProxyTransformer");
+	private static final Counter unchangedGenerated = Metrics
+			.counter("generate.unchanged.JavassistSimpleJavaProxyTransformer");
 	
 	protected Map<Class<?>, Long> transStart = new ConcurrentHashMap<Class<?>, Long>();
+	/* the class files last generated for the proxy classes, ClassValue does not keep the classes from being unloaded */
+	private final ClassValue<AtomicReference<byte[]>> generated = new ClassValue<AtomicReference<byte[]>>() {
+		@Override
+		protected AtomicReference<byte[]> computeValue(Class<?> type) {
+			return new AtomicReference<>();
+		}
+	};
 	
 	@Override
 	public byte[] transform(ClassLoader loader, String className, final Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
-		if (classBeingRedefined == null)
-			return null;
+		return transform(new ClassView(loader, className, classBeingRedefined, protectionDomain, classfileBuffer));
+	}
+	
+	@Override
+	public byte[] transform(ClassView classView) {
+		Class<?> classBeingRedefined = classView.getClassBeingRedefined();
+		long start = System.nanoTime();
 		try {
-			if (!isProxy(className, classBeingRedefined, classfileBuffer)
-					|| !ClassfileBufferSigantureTransformer.hasSuperClassOrInterfaceChanged(classBeingRedefined)) {
+			if (!isProxy(classView.getClassName(), classBeingRedefined, classView.getClassfileBuffer()))
+				return null;
+			if (classBeingRedefined == null) {
+				ProxyIndex.register(classView.getLoader(), classView.getClassfileBuffer());
+				return null;
+			}
+			if (!ClassfileBufferSigantureTransformer.hasSuperClassOrInterfaceChanged(classBeingRedefined)) {
+				return null;
+			}
+			byte[] bytecode = generateProxyClass(classView);
+			ProxyIndex.clearChanged(classBeingRedefined);
+			// the same interfaces give the same class file, the class is left alone when only unproxied members changed
+			AtomicReference<byte[]> last = generated.get(classBeingRedefined);
+			if (isApplied(bytecode, last.get(), classBeingRedefined)
+					|| Arrays.equals(bytecode, classView.getClassfileBuffer())) {
+				unchangedGenerated.increment();
 				return null;
 			}
-			String javaClassName = TransformationUtils.getClassName(className);
-			CtClass cc = classPool.get(javaClassName);
-			return CtClassJavaProxyGenerator.generateProxyClass(javaClassName, cc.getInterfaces());
+			last.set(bytecode);
+			return bytecode;
 		} catch (Exception e) {
 			TransformationUtils.logError(e);
 			return null;
+		} finally {
+			transformTimer.stop(start);
+		}
+	}
+	
+	/**
+	 * Checks if the class file is the last one generated for the class and the class has its methods, a failed
+	 * redefinition leaves the previous ones.
+	 */
+	private static boolean isApplied(byte[] bytecode, byte[] last, Class<?> classBeingRedefined) {
+		return Arrays.equals(bytecode, last)
+				&& MethodTableFingerprint.of(bytecode).equals(MethodTableFingerprint.of(classBeingRedefined));
+	}
+	
+	private byte[] generateProxyClass(ClassView classView) throws Exception {
+		String cacheKey = null;
+		if (ProxyBytecodeCache.isEnabled()) {
+			// a class generated with other settings in an earlier run must not be served
+			String generator = getClass().getName() + '|' + CtClassJavaProxyGenerator.getDefaultSettings();
+			cacheKey = ProxyBytecodeCache.getKey(generator, classView.getClassBeingRedefined());
+			byte[] cached = ProxyBytecodeCache.get(cacheKey);
+			if (cached != null)
+				return cached;
 		}
+		// interfaces are resolved through the shared ClassPool, which holds their new definitions
+		CtClass cc = classView.getCtClass();
+		// proxies of non-public interfaces are not public, a redefinition must keep the class modifiers
+		int accessFlags = ClassfileScanner.getAccessFlags(classView.getClassfileBuffer());
+		ParallelProxyGenerator parallelGenerator = ParallelProxyGenerator.getInstance();
+		byte[] bytecode;
+		if (parallelGenerator != null)
+			bytecode = parallelGenerator.generate(cc.getName(), classView.getLoader(), cc.getInterfaces(),
+					accessFlags);
+		else
+			bytecode = CtClassJavaProxyGenerator.generateProxyClass(cc.getName(), cc.getInterfaces(), accessFlags);
+		if (cacheKey != null)
+			ProxyBytecodeCache.put(cacheKey, bytecode);
+		return bytecode;
 	}
 	
 	protected boolean isProxy(String className, Class<?> classBeingRedefined, byte[] classfileBuffer) {
-		return className.startsWith("com/sun/proxy/$Proxy");
+		return JdkProxies.isProxy(className, classfileBuffer);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package io.github.proxyhotswap.java;
+
+import io.github.proxyhotswap.ClassfileScanner;
+
+/**
+ * Recognizes the classes generated by java.lang.reflect.Proxy. JDK 8 names them com.sun.proxy.$ProxyN, newer JDKs
+ * jdk.proxyN.$ProxyN, or put them in the package of a non-public interface. All of them are named $ProxyN, so the
+ * simple name is checked first, and only those classes have the superclass read from the class file header.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class JdkProxies {
+	private static final String SIMPLE_NAME_PREFIX = "$Proxy";
+	private static final String PROXY_CLASS = "java/lang/reflect/Proxy";
+	
+	private JdkProxies() {
+	}
+	
+	/**
+	 * @param className
+	 *            name of the class in the internal form, as given to ClassFileTransformer
+	 */
+	public static boolean isProxy(String className, byte[] classfileBuffer) {
+		return className != null && isProxyName(className)
+				&& ClassfileScanner.hasSuperclass(classfileBuffer, PROXY_CLASS);
+	}
+	
+	/**
+	 * Checks the name of the class, in the internal form or with dots, without looking at the superclass.
+	 */
+	public static boolean isProxyName(String className) {
+		int start = Math.max(className.lastIndexOf('/'), className.lastIndexOf('.')) + 1;
+		int length = className.length() - start - SIMPLE_NAME_PREFIX.length();
+		if (length <= 0 || !className.startsWith(SIMPLE_NAME_PREFIX, start))
+			return false;
+		for (int i = className.length() - length; i < className.length(); i++) {
+			char c = className.charAt(i);
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks the superclass of a registered class, the names are in the form of ProxyIndex.ProxyEntry.
+	 */
+	public static boolean isProxy(String[] supertypeNames) {
+		return supertypeNames.length > 0 && supertypeNames[0].equals("java.lang.reflect.Proxy");
+	}
+}
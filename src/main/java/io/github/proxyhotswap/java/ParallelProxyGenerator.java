@@ -0,0 +1,136 @@
+package io.github.proxyhotswap.java;
+
+import io.github.proxyhotswap.ProxyIndex;
+import io.github.proxyhotswap.ProxyIndex.ProxyEntry;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Generates the changed java.lang.reflect.Proxy classes in parallel. The first proxy redefinition after a change of an
+ * interface submits the generation of all other changed proxies to a bounded ForkJoinPool, the redefinition events of
+ * the other proxies, which are part of the same redefinition, then only wait for their finished bytes.
+ * 
+ * Generation results are tied to the ProxyIndex change count, results computed before a newer change are not used.
+ * 
+ * The generators running in parallel share state: the interfaces of the shared ClassPool, the analysis of the
+ * interfaces, which is kept in a synchronized map of final objects, and the constant pool prefix, which is written once
+ * in the class initialization of CtClassJavaProxyGenerator.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ParallelProxyGenerator {
+	/* parallelism of the generator pool, less than 2 disables parallel generation */
+	private static final int THREADS = Integer.getInteger("io.github.proxyhotswap.generatorThreads", Runtime
+			.getRuntime().availableProcessors());
+	private static final Counter prefetchedCounter = Metrics.counter("generate.parallel.prefetched");
+	private static final Counter usedCounter = Metrics.counter("generate.parallel.used");
+	
+	private static ParallelProxyGenerator instance;
+	
+	private final ForkJoinPool pool;
+	/* proxy names are unique, the counter of java.lang.reflect.Proxy is shared by all class loaders */
+	private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+	
+	public ParallelProxyGenerator(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+	
+	/**
+	 * Returns the shared generator, or null if parallel generation is disabled.
+	 */
+	public static synchronized ParallelProxyGenerator getInstance() {
+		if (instance == null && THREADS > 1)
+			instance = new ParallelProxyGenerator(THREADS);
+		return instance;
+	}
+	
+	/**
+	 * Generates the proxy class. A result prepared in parallel is used if there is one, otherwise the other changed
+	 * proxies are submitted to the pool and the class is generated in the calling thread.
+	 * 
+	 * @param accessFlags
+	 *            access flags of the loaded proxy class
+	 */
+	public byte[] generate(String name, ClassLoader loader, CtClass[] interfaces, int accessFlags) {
+		long changeCount = ProxyIndex.getChangeCount();
+		Pending own = pending.remove(name);
+		if (own != null && own.changeCount == changeCount && own.loader.get() == loader) {
+			usedCounter.increment();
+			return own.task.join();
+		}
+		submitChanged(name, changeCount);
+		return CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, accessFlags);
+	}
+	
+	private void submitChanged(String name, long changeCount) {
+		// drop the results of older changes and of proxies that were not redefined
+		for (Iterator<Pending> iterator = pending.values().iterator(); iterator.hasNext();) {
+			if (iterator.next().changeCount != changeCount)
+				iterator.remove();
+		}
+		for (ProxyEntry entry : ProxyIndex.getChangedProxies()) {
+			final String proxyName = entry.getName();
+			final String[] supertypeNames = entry.getSupertypeNames();
+			final int accessFlags = entry.getAccessFlags();
+			if (proxyName.equals(name) || !JdkProxies.isProxy(supertypeNames))
+				continue;
+			ClassLoader loader = entry.getLoader();
+			if (pending.containsKey(proxyName))
+				continue;
+			ForkJoinTask<byte[]> task = pool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return CtClassJavaProxyGenerator.generateProxyClass(proxyName, getInterfaces(supertypeNames),
+							accessFlags);
+				}
+			});
+			pending.put(proxyName, new Pending(task, loader, changeCount));
+			prefetchedCounter.increment();
+		}
+	}
+	
+	/**
+	 * Resolves the interfaces through the shared ClassPool, like the interfaces of the proxy class being redefined.
+	 */
+	private static CtClass[] getInterfaces(String[] supertypeNames) throws Exception {
+		// the superclass java.lang.reflect.Proxy is the first element
+		String[] interfaceNames = Arrays.copyOfRange(supertypeNames, 1, supertypeNames.length);
+		ClassPool classPool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = new CtClass[interfaceNames.length];
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaces[i] = classPool.get(interfaceNames[i]);
+		}
+		return interfaces;
+	}
+	
+	/**
+	 * Number of prepared results waiting for their redefinition event.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	private static class Pending {
+		private final ForkJoinTask<byte[]> task;
+		private final WeakReference<ClassLoader> loader;
+		private final long changeCount;
+		
+		public Pending(ForkJoinTask<byte[]> task, ClassLoader loader, long changeCount) {
+			this.task = task;
+			this.loader = new WeakReference<>(loader);
+			this.changeCount = changeCount;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package io.github.proxyhotswap.java;
+
+/**
+ * Argument boxes for the proxies generated with cached argument boxes. Int and long arguments are boxed with a larger
+ * cache than the one of Integer.valueOf and Long.valueOf, as small keys and ids are the common arguments of such
+ * methods. The boxes are immutable, so the invocation handlers can keep them like any other argument.
+ * 
+ * Called from the generated proxy classes, so the agent classes must be visible to their class loaders.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyArguments {
+	/* boxes of the values from -128 up to this are cached */
+	private static final int BOX_CACHE_HIGH = 1023;
+	private static final Integer[] integers = new Integer[BOX_CACHE_HIGH + 129];
+	private static final Long[] longs = new Long[BOX_CACHE_HIGH + 129];
+	static {
+		for (int i = 0; i < integers.length; i++) {
+			integers[i] = Integer.valueOf(i - 128);
+			longs[i] = Long.valueOf(i - 128);
+		}
+	}
+	
+	public static Integer valueOf(int value) {
+		if (value >= -128 && value <= BOX_CACHE_HIGH)
+			return integers[value + 128];
+		return Integer.valueOf(value);
+	}
+	
+	public static Long valueOf(long value) {
+		if (value >= -128 && value <= BOX_CACHE_HIGH)
+			return longs[(int) value + 128];
+		return Long.valueOf(value);
+	}
+}
@@ -0,0 +1,41 @@
+package io.github.proxyhotswap.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class Counter {
+	private final String name;
+	private final AtomicLong value = new AtomicLong();
+	
+	Counter(String name) {
+		this.name = name;
+	}
+	
+	public void increment() {
+		value.incrementAndGet();
+	}
+	
+	public void add(long delta) {
+		value.addAndGet(delta);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long get() {
+		return value.get();
+	}
+	
+	public void reset() {
+		value.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return Long.toString(value.get());
+	}
+}
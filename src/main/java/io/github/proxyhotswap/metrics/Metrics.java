@@ -0,0 +1,172 @@
+package io.github.proxyhotswap.metrics;
+
+import io.github.proxyhotswap.TransformationUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the agent's timers and counters. Timers and counters are looked up once and kept in static fields by the
+ * code that updates them, so updating one is only a few atomic operations.
+ * 
+ * If io.github.proxyhotswap.jmx is true, the metrics are registered as a JMX MXBean. It is off by default, the agent
+ * is installed before the application and starting the platform MBeanServer then also initializes java.util.logging,
+ * before servers like JBoss can install their own LogManager. If io.github.proxyhotswap.metricsFile is set, the
+ * metrics are written to that file every io.github.proxyhotswap.metricsInterval seconds.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class Metrics {
+	public static final String OBJECT_NAME = "io.github.proxyhotswap:type=Metrics";
+	private static final boolean JMX_ENABLED = Boolean.getBoolean("io.github.proxyhotswap.jmx");
+	private static final String DUMP_FILE = System.getProperty("io.github.proxyhotswap.metricsFile");
+	private static final long DUMP_INTERVAL = Long.getLong("io.github.proxyhotswap.metricsInterval", 60L);
+	
+	private static ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+	private static ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+	
+	public static Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			timer = new Timer(name);
+			Timer old = timers.putIfAbsent(name, timer);
+			if (old != null)
+				timer = old;
+		}
+		return timer;
+	}
+	
+	public static Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counter = new Counter(name);
+			Counter old = counters.putIfAbsent(name, counter);
+			if (old != null)
+				counter = old;
+		}
+		return counter;
+	}
+	
+	/**
+	 * Registers the MXBean and starts the periodic dump, as configured by the system properties.
+	 */
+	public static void install() {
+		if (JMX_ENABLED)
+			registerMBean();
+		if (DUMP_FILE != null)
+			startDump(Paths.get(DUMP_FILE), DUMP_INTERVAL);
+	}
+	
+	public static String dump() {
+		StringBuilder dump = new StringBuilder();
+		for (Timer timer : new TreeMap<>(timers).values()) {
+			dump.append(timer.getName()).append(": ").append(timer).append('\n');
+		}
+		for (Counter counter : new TreeMap<>(counters).values()) {
+			dump.append(counter.getName()).append(": ").append(counter).append('\n');
+		}
+		return dump.toString();
+	}
+	
+	public static void reset() {
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+	}
+	
+	private static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+		} catch (JMException | RuntimeException e) {
+			TransformationUtils.logError(e);
+		}
+	}
+	
+	private static void startDump(final Path file, long intervalSeconds) {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ProxyHotswap metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Files.write(file, dump().getBytes(StandardCharsets.UTF_8));
+				} catch (IOException | RuntimeException e) {
+					TransformationUtils.logError(e);
+				}
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+	
+	private static class MetricsBean implements MetricsMXBean {
+		
+		@Override
+		public Map<String, Long> getCounters() {
+			Map<String, Long> values = new TreeMap<>();
+			for (Counter counter : counters.values()) {
+				values.put(counter.getName(), counter.get());
+			}
+			return values;
+		}
+		
+		@Override
+		public Map<String, String> getTimers() {
+			Map<String, String> values = new TreeMap<>();
+			for (Timer timer : timers.values()) {
+				values.put(timer.getName(), timer.toString());
+			}
+			return values;
+		}
+		
+		@Override
+		public Map<String, Long> getTimerCounts() {
+			Map<String, Long> values = new TreeMap<>();
+			for (Timer timer : timers.values()) {
+				values.put(timer.getName(), timer.getCount());
+			}
+			return values;
+		}
+		
+		@Override
+		public Map<String, Long> getTimerTotalNanos() {
+			Map<String, Long> values = new TreeMap<>();
+			for (Timer timer : timers.values()) {
+				values.put(timer.getName(), timer.getTotalNanos());
+			}
+			return values;
+		}
+		
+		@Override
+		public String dump() {
+			return Metrics.dump();
+		}
+		
+		@Override
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package io.github.proxyhotswap.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the agent metrics, registered as {@value Metrics#OBJECT_NAME}.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public interface MetricsMXBean {
+	
+	Map<String, Long> getCounters();
+	
+	/**
+	 * Summaries of the timers: count, total, mean, p50, p99 and max.
+	 */
+	Map<String, String> getTimers();
+	
+	Map<String, Long> getTimerCounts();
+	
+	Map<String, Long> getTimerTotalNanos();
+	
+	String dump();
+	
+	void reset();
+}
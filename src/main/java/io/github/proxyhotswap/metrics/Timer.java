@@ -0,0 +1,100 @@
+package io.github.proxyhotswap.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power of two buckets. Recording is a few atomic increments, no locking or allocation.
+ * Percentiles are reported as the upper bound of their bucket, so they are accurate within a factor of two.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class Timer {
+	private final String name;
+	/* bucket i holds durations in [2^(i-1), 2^i) nanoseconds, bucket 0 holds 0 */
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	
+	Timer(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Records the time since the given System.nanoTime() value.
+	 */
+	public void stop(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+	
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+	
+	public long getMeanNanos() {
+		long c = count.get();
+		return c == 0 ? 0 : totalNanos.get() / c;
+	}
+	
+	/**
+	 * Upper bound of the bucket that holds the given percentile, 0 if nothing has been recorded.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long c = count.get();
+		if (c == 0)
+			return 0;
+		long rank = (long) Math.ceil(c * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return i == 0 ? 0 : Math.min((1L << i) - 1, maxNanos.get());
+		}
+		return maxNanos.get();
+	}
+	
+	public void reset() {
+		for (int i = 0; i < 64; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("count=%d total=%.3fms mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", getCount(),
+				millis(getTotalNanos()), millis(getMeanNanos()), millis(getPercentileNanos(50)),
+				millis(getPercentileNanos(99)), millis(getMaxNanos()));
+	}
+	
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,287 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.javassist.CtNewMethod;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class AbstractProxyTransformerTest {
+	
+	public interface Service {
+		void serve();
+	}
+	
+	public static class ServiceProxy implements Service {
+		@Override
+		public void serve() {
+		}
+	}
+	
+	public interface SuperBase {
+		void base();
+	}
+	
+	public interface Derived extends SuperBase {
+	}
+	
+	public static class DerivedProxy implements Derived {
+		@Override
+		public void base() {
+		}
+	}
+	
+	public interface ParentBase {
+		void parent();
+	}
+	
+	public static class Parent implements ParentBase {
+		@Override
+		public void parent() {
+		}
+	}
+	
+	public static class ParentProxy extends Parent {
+	}
+	
+	private static final byte[] GENERATED = new byte[] { 1, 2, 3 };
+	
+	private static class TestTransformer extends AbstractProxyTransformer {
+		private final List<Class<?>> scheduled = new ArrayList<>();
+		private int failures;
+		private Runnable duringGeneration;
+		/* runs the generation of AbstractProxyTransformer on the bytes of ServiceProxy */
+		private boolean instrument;
+		private boolean immediate;
+		private boolean cache;
+		/* the bytes the generator returns, those of ServiceProxy if null */
+		private byte[] newByteCode;
+		
+		public TestTransformer() {
+			super(null);
+		}
+		
+		@Override
+		protected boolean isProxy(ClassLoader loader, String className, Class<?> classBeingRedefined,
+				byte[] classfileBuffer) {
+			return true;
+		}
+		
+		@Override
+		protected byte[] generateNewProxyClass(ClassLoader loader, String className, Class<?> classBeingRedefined)
+				throws Exception {
+			if (instrument)
+				return super.generateNewProxyClass(loader, className, classBeingRedefined);
+			if (duringGeneration != null)
+				duringGeneration.run();
+			if (failures-- > 0)
+				throw new IllegalStateException("generation failed");
+			return GENERATED;
+		}
+		
+		@Override
+		protected boolean canRegenerateImmediately(Class<?> classBeingRedefined) {
+			return immediate;
+		}
+		
+		@Override
+		protected boolean isCacheEnabled() {
+			return cache;
+		}
+		
+		@Override
+		protected void scheduleRedefinition(Class<?> classBeingRedefined, byte[] classfileBuffer) {
+			scheduled.add(classBeingRedefined);
+		}
+		
+		@Override
+		protected String getInitCall(CtClass cc, String random) {
+			return "";
+		}
+		
+		@Override
+		protected byte[] getNewByteCode(ClassLoader loader, String className, Class<?> classBeingRedefined)
+				throws IOException {
+			return newByteCode != null ? newByteCode : getBytes(ServiceProxy.class);
+		}
+		
+		public byte[] redefine() throws Exception {
+			return transformRedefine(null, "ServiceProxy", ServiceProxy.class, (ProtectionDomain) null, new byte[0]);
+		}
+	}
+	
+	private TestTransformer transformer;
+	
+	@Before
+	public void setUp() throws IOException {
+		transformer = new TestTransformer();
+		ProxyIndex.register(ServiceProxy.class.getClassLoader(), getBytes(ServiceProxy.class));
+		ProxyIndex.clearChanged(ServiceProxy.class);
+	}
+	
+	@Test
+	public void unchangedProxyIsNotScheduled() throws Exception {
+		assertNull(transformer.redefine());
+		assertTrue(transformer.scheduled.isEmpty());
+		assertEquals(TransformationState.DETECTED, transformer.getProxyState(ServiceProxy.class).get());
+	}
+	
+	@Test
+	public void changedProxyIsScheduledAndRegenerated() throws Exception {
+		ProxyIndex.markChanged(Service.class.getName());
+		assertNull(transformer.redefine());
+		assertEquals(1, transformer.scheduled.size());
+		assertEquals(TransformationState.SCHEDULED, transformer.getProxyState(ServiceProxy.class).get());
+		
+		assertSame(GENERATED, transformer.redefine());
+		assertEquals(TransformationState.APPLIED, transformer.getProxyState(ServiceProxy.class).get());
+		assertFalse(ProxyIndex.isChanged(ServiceProxy.class));
+		
+		assertNull(transformer.redefine());
+		assertEquals(1, transformer.scheduled.size());
+	}
+	
+	@Test
+	public void redefinitionDuringGenerationSchedulesAgain() throws Exception {
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		transformer.duringGeneration = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					assertNull(transformer.redefine());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		assertSame(GENERATED, transformer.redefine());
+		assertEquals(2, transformer.scheduled.size());
+		assertEquals(TransformationState.SCHEDULED, transformer.getProxyState(ServiceProxy.class).get());
+	}
+	
+	@Test
+	public void identicalProxyKeepsCurrentDefinition() throws Exception {
+		transformer.instrument = true;
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		assertNotNull(transformer.redefine());
+		
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		assertNull(transformer.redefine());
+		assertEquals(TransformationState.APPLIED, transformer.getProxyState(ServiceProxy.class).get());
+		
+		// the generated bytes are forgotten when the redefinition is rolled back
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		transformer.getProxyState(ServiceProxy.class).setGenerated(null);
+		assertNotNull(transformer.redefine());
+	}
+	
+	@Test
+	public void cachedProxyForgetsGeneratedBytes() throws Exception {
+		transformer.instrument = true;
+		transformer.cache = true;
+		// not in the cache of an earlier run
+		String run = Long.toString(System.nanoTime());
+		byte[] generatedA = getBytes(ServiceProxy.class);
+		byte[] generatedB = getBytes(DerivedProxy.class);
+		assertNotNull(regenerate("A" + run, generatedA));
+		assertNotNull(regenerate("B" + run, generatedB));
+		assertNotNull(regenerate("A" + run, generatedA));
+		// only changed outside of the proxied methods, the generator returns the same bytes as for B
+		assertNotNull(regenerate("B'" + run, generatedB));
+	}
+	
+	/* redefines Service with the given definition and regenerates the proxy */
+	private byte[] regenerate(String definition, byte[] generated) throws Exception {
+		ProxyBytecodeCache.putDefinition(Service.class.getName(), definition.getBytes(StandardCharsets.UTF_8));
+		transformer.newByteCode = generated;
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		return transformer.redefine();
+	}
+	
+	@Test
+	public void singleStepRegeneratesInFirstEvent() throws Exception {
+		transformer.immediate = true;
+		ProxyIndex.markChanged(Service.class.getName());
+		assertSame(GENERATED, transformer.redefine());
+		assertTrue(transformer.scheduled.isEmpty());
+		assertEquals(TransformationState.APPLIED, transformer.getProxyState(ServiceProxy.class).get());
+		assertFalse(ProxyIndex.isChanged(ServiceProxy.class));
+		
+		// a failed generation falls back to the scheduled redefinition
+		transformer.failures = 1;
+		ProxyIndex.markChanged(Service.class.getName());
+		try {
+			transformer.redefine();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, transformer.scheduled.size());
+		assertEquals(TransformationState.SCHEDULED, transformer.getProxyState(ServiceProxy.class).get());
+		assertSame(GENERATED, transformer.redefine());
+	}
+	
+	@Test
+	public void changedSuperInterfaceIsNotRedefined() throws Exception {
+		assertTrue(ClassfileBufferSigantureTransformer.areSupertypesRedefined(DerivedProxy.class));
+		redefineWithAddedMethod(SuperBase.class);
+		assertFalse(ClassfileBufferSigantureTransformer.areSupertypesRedefined(DerivedProxy.class));
+		assertTrue(ClassfileBufferSigantureTransformer.areSupertypesRedefined(ServiceProxy.class));
+	}
+	
+	@Test
+	public void changedInterfaceOfSuperclassIsNotRedefined() throws Exception {
+		assertTrue(ClassfileBufferSigantureTransformer.areSupertypesRedefined(ParentProxy.class));
+		redefineWithAddedMethod(ParentBase.class);
+		assertFalse(ClassfileBufferSigantureTransformer.areSupertypesRedefined(ParentProxy.class));
+	}
+	
+	/* a redefinition event of the interface whose new definition is not loaded yet */
+	private static void redefineWithAddedMethod(Class<?> intf) throws Exception {
+		CtClass cc = new ClassPool(true).makeInterface(intf.getName());
+		cc.addMethod(CtNewMethod.abstractMethod(CtClass.voidType, "added", null, null, cc));
+		new ClassfileBufferSigantureTransformer().transform(intf.getClassLoader(), intf.getName().replace('.', '/'),
+				intf, null, cc.toBytecode());
+	}
+	
+	@Test
+	public void failedGenerationIsRetried() throws Exception {
+		transformer.failures = 10;
+		ProxyIndex.markChanged(Service.class.getName());
+		transformer.redefine();
+		for (int i = 0; i < 3; i++) {
+			try {
+				transformer.redefine();
+				fail();
+			} catch (IllegalStateException e) {
+			}
+		}
+		ProxyState state = transformer.getProxyState(ServiceProxy.class);
+		assertEquals(TransformationState.FAILED, state.get());
+		assertEquals(3, state.getRetries());
+		assertEquals(3, transformer.scheduled.size());
+		
+		transformer.failures = 0;
+		transformer.redefine();
+		assertSame(GENERATED, transformer.redefine());
+		assertEquals(TransformationState.APPLIED, state.get());
+	}
+}
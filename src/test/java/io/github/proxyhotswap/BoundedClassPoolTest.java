@@ -0,0 +1,64 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.javassist.CtClass;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class BoundedClassPoolTest {
+	
+	public interface Redefined {
+		void call();
+	}
+	
+	public static class RedefinedProxy implements Redefined {
+		@Override
+		public void call() {
+		}
+	}
+	
+	@Test
+	public void redefinedClassesAreNotEvicted() throws Exception {
+		BoundedClassPool pool = new BoundedClassPool(2);
+		pool.appendSystemPath();
+		CtClass redefined = pool.makeClass(new ByteArrayInputStream(getBytes(Redefined.class)), false);
+		for (Class<?> clazz : new Class<?>[] { Runnable.class, Comparable.class, Iterable.class, CharSequence.class }) {
+			pool.get(clazz.getName());
+		}
+		assertEquals(2, pool.size());
+		assertEquals(1, pool.getDefinedCount());
+		assertSame(redefined, pool.get(Redefined.class.getName()));
+	}
+	
+	@Test
+	public void redefinitionReplacesClassPathVersion() throws Exception {
+		BoundedClassPool pool = new BoundedClassPool(2);
+		pool.appendSystemPath();
+		CtClass read = pool.get(Redefined.class.getName());
+		CtClass redefined = pool.makeClass(new ByteArrayInputStream(getBytes(Redefined.class)), false);
+		assertNotSame(read, redefined);
+		assertSame(redefined, pool.get(Redefined.class.getName()));
+		assertEquals(0, pool.size());
+	}
+	
+	@Test
+	public void redefinedClassesAreEvicted() throws Exception {
+		BoundedClassPool pool = new BoundedClassPool(2);
+		pool.appendSystemPath();
+		CtClass redefined = pool.makeClass(new ByteArrayInputStream(getBytes(RedefinedProxy.class)), false);
+		assertSame(redefined, pool.get(RedefinedProxy.class.getName()));
+		assertEquals(0, pool.getDefinedCount());
+		for (Class<?> clazz : new Class<?>[] { Runnable.class, Comparable.class }) {
+			pool.get(clazz.getName());
+		}
+		assertEquals(2, pool.size());
+		assertNotSame(redefined, pool.get(RedefinedProxy.class.getName()));
+	}
+}
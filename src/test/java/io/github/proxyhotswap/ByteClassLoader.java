@@ -0,0 +1,32 @@
+package io.github.proxyhotswap;
+
+import io.github.proxyhotswap.javassist.bytecode.ClassFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Defines classes from bytes in a fresh loader, so each test gets its own copies that can be unloaded.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ByteClassLoader extends ClassLoader {
+	public ByteClassLoader() {
+		super(ByteClassLoader.class.getClassLoader());
+	}
+	
+	public Class<?> define(String name, byte[] bytes) {
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Defines an empty class extending Object.
+	 */
+	public Class<?> define(String name) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		new ClassFile(false, name, null).write(new DataOutputStream(bout));
+		return define(name, bout.toByteArray());
+	}
+}
@@ -0,0 +1,58 @@
+package io.github.proxyhotswap;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class ClassFilterTest {
+	
+	@Test
+	public void longestPrefixWins() {
+		PrefixTrie trie = new PrefixTrie();
+		trie.put("com/", 1);
+		trie.put("com/acme/", 2);
+		trie.put("com/acme/dto/", 3);
+		assertEquals(PrefixTrie.NO_MATCH, trie.match("org/Foo"));
+		assertEquals(1, trie.match("com/Foo"));
+		assertEquals(2, trie.match("com/acme/Foo"));
+		assertEquals(3, trie.match("com/acme/dto/Foo"));
+		assertEquals(1, trie.match("com/acm"));
+	}
+	
+	@Test
+	public void defaultSkipsJdkButNotItsProxies() {
+		ClassFilter filter = AgentOptions.parse(null).getClassFilter();
+		assertFalse(filter.accepts(null, "java/lang/String"));
+		assertFalse(filter.accepts(null, "com/sun/xml/Foo"));
+		assertTrue(filter.accepts(null, "com/sun/proxy/$Proxy12"));
+		assertTrue(filter.accepts(null, "jdk/proxy1/$Proxy3"));
+		assertTrue(filter.accepts(null, "com/acme/Foo"));
+	}
+	
+	@Test
+	public void parsesIncludesAndExcludes() {
+		ClassFilter filter = AgentOptions.parse("include=com.acme:org.springframework.cglib, exclude=com.acme.dto.")
+				.getClassFilter();
+		assertTrue(filter.accepts(null, "com/acme/Service"));
+		assertTrue(filter.accepts(null, "org/springframework/cglib/core/DefaultGeneratorStrategy"));
+		assertFalse(filter.accepts(null, "com/acme/dto/Customer"));
+		assertFalse(filter.accepts(null, "org/example/Foo"));
+		assertTrue(filter.accepts(null, "com/sun/proxy/$Proxy12"));
+	}
+	
+	@Test
+	public void filtersClassLoaders() {
+		ClassFilter filter = AgentOptions.parse("excludeLoader=java.net.URLClassLoader").getClassFilter();
+		ClassLoader loader = new URLClassLoader(new URL[0]);
+		assertFalse(filter.accepts(loader, "com/acme/Foo"));
+		assertTrue(filter.accepts(getClass().getClassLoader(), "com/acme/Foo"));
+		assertTrue(filter.accepts(null, "com/acme/Foo"));
+	}
+}
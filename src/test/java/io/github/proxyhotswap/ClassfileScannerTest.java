@@ -0,0 +1,81 @@
+package io.github.proxyhotswap;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.RandomAccess;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class ClassfileScannerTest {
+	
+	public static class Value implements Serializable, Comparable<Value> {
+		private static final long serialVersionUID = 1L;
+		static final double RATIO = 0.5d;
+		
+		@Override
+		public int compareTo(Value o) {
+			return (int) RATIO;
+		}
+	}
+	
+	public static class ValueHolder {
+		Serializable value;
+	}
+	
+	@Test
+	public void findsInterfaceBySimpleName() throws IOException {
+		byte[] bytes = getBytes(Value.class);
+		assertTrue(ClassfileScanner.hasInterface(bytes, "Serializable"));
+		assertTrue(ClassfileScanner.hasInterface(bytes, "Comparable"));
+		assertFalse(ClassfileScanner.hasInterface(bytes, "Value"));
+		assertFalse(ClassfileScanner.hasInterface(bytes, "RandomAccess"));
+	}
+	
+	@Test
+	public void ignoresReferencesOutsideInterfaceTable() throws IOException {
+		assertFalse(ClassfileScanner.hasInterface(getBytes(ValueHolder.class), "Serializable"));
+	}
+	
+	@Test
+	public void readsJdkClasses() throws IOException {
+		assertTrue(ClassfileScanner.hasInterface(getBytes(java.util.ArrayList.class), RandomAccess.class.getSimpleName()));
+		assertFalse(ClassfileScanner.hasInterface(getBytes(Long.class), "GeneratorStrategy"));
+	}
+	
+	@Test
+	public void readsClassName() throws IOException {
+		assertEquals("io/github/proxyhotswap/ClassfileScannerTest$Value",
+				ClassfileScanner.getClassName(getBytes(Value.class)));
+		assertEquals("java/util/ArrayList", ClassfileScanner.getClassName(getBytes(java.util.ArrayList.class)));
+	}
+	
+	@Test
+	public void readsSuperclass() throws IOException {
+		assertTrue(ClassfileScanner.hasSuperclass(getBytes(Value.class), "java/lang/Object"));
+		assertTrue(ClassfileScanner.hasSuperclass(getBytes(Long.class), "java/lang/Number"));
+		assertFalse(ClassfileScanner.hasSuperclass(getBytes(Long.class), "java/lang/Object"));
+		assertFalse(ClassfileScanner.hasSuperclass(getBytes(Object.class), "java/lang/Object"));
+	}
+	
+	static byte[] getBytes(Class<?> clazz) throws IOException {
+		InputStream in = ClassLoader.getSystemResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
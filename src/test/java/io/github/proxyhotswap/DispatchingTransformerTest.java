@@ -0,0 +1,73 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class DispatchingTransformerTest {
+	
+	private static class RecordingHandler implements ClassViewTransformer {
+		private final List<ClassView> views = new ArrayList<>();
+		private final byte[] result;
+		
+		public RecordingHandler(byte[] result) {
+			this.result = result;
+		}
+		
+		@Override
+		public byte[] transform(ClassView classView) {
+			views.add(classView);
+			try {
+				classView.getCtClass();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return result;
+		}
+	}
+	
+	private static class FailingHandler implements ClassViewTransformer {
+		@Override
+		public byte[] transform(ClassView classView) {
+			throw new RuntimeException();
+		}
+	}
+	
+	@Test
+	public void sharesViewUntilClassIsTransformed() throws IOException, IllegalClassFormatException {
+		byte[] original = getBytes(DispatchingTransformerTest.class);
+		byte[] transformed = getBytes(RecordingHandler.class);
+		RecordingHandler first = new RecordingHandler(null);
+		RecordingHandler second = new RecordingHandler(transformed);
+		RecordingHandler third = new RecordingHandler(null);
+		DispatchingTransformer transformer = new DispatchingTransformer(first, new FailingHandler(), second, third);
+		
+		byte[] result = transformer.transform(null, "io/github/proxyhotswap/DispatchingTransformerTest", null, null,
+				original);
+		
+		assertSame(transformed, result);
+		ClassView view = first.views.get(0);
+		assertSame(view, second.views.get(0));
+		assertSame(view.getCtClass(), second.views.get(0).getCtClass());
+		assertEquals("io.github.proxyhotswap.DispatchingTransformerTest", view.getName());
+		ClassView transformedView = third.views.get(0);
+		assertNotSame(view, transformedView);
+		assertSame(transformed, transformedView.getClassfileBuffer());
+	}
+	
+	@Test
+	public void returnsNullWhenNothingChanges() throws IOException, IllegalClassFormatException {
+		DispatchingTransformer transformer = new DispatchingTransformer(new RecordingHandler(null));
+		assertNull(transformer.transform(null, null, null, null, getBytes(DispatchingTransformerTest.class)));
+	}
+}
@@ -0,0 +1,56 @@
+package io.github.proxyhotswap;
+
+import static org.junit.Assert.*;
+
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.javassist.CtField;
+import io.github.proxyhotswap.javassist.CtMethod;
+import io.github.proxyhotswap.javassist.CtNewMethod;
+import io.github.proxyhotswap.javassist.Modifier;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class InitGuardTest {
+	
+	@Test
+	public void guardCallsInitOnce() throws Exception {
+		ClassPool pool = new ClassPool(TransformationUtils.getClassPool());
+		CtClass cc = pool.makeClass("io.github.proxyhotswap.GuardedTarget");
+		CtField initField = new CtField(CtClass.booleanType, "initCalled", cc);
+		initField.setModifiers(Modifier.PRIVATE | Modifier.STATIC);
+		cc.addField(initField);
+		cc.addField(CtField.make("public static int initCount;", cc));
+		cc.addMethod(CtNewMethod.make("private static void init() { initCalled = true; initCount++; }", cc));
+		cc.addMethod(CtNewMethod.make("public long add(long a, double b) { return a + (long) b; }", cc));
+		cc.addMethod(CtNewMethod.make("public String select(int i) { switch (i) { case 0: return \"zero\"; "
+				+ "case 1: return \"one\"; case 2: return \"two\"; default: return \"many\"; } }", cc));
+		cc.addMethod(CtNewMethod.make("public int count(int n) { int sum = 0; while (n > 0) { sum += n--; } "
+				+ "return sum; }", cc));
+		
+		InitGuard guard = InitGuard.compile(cc, "initCalled", "init();");
+		for (CtMethod method : cc.getDeclaredMethods()) {
+			if (!Modifier.isStatic(method.getModifiers()))
+				guard.insertInto(method);
+		}
+		
+		Class<?> clazz = new ByteClassLoader().define(cc.getName(), cc.toBytecode());
+		Object target = clazz.newInstance();
+		Method add = clazz.getMethod("add", long.class, double.class);
+		Method select = clazz.getMethod("select", int.class);
+		Method count = clazz.getMethod("count", int.class);
+		assertEquals(0, clazz.getField("initCount").getInt(null));
+		assertEquals(5L, add.invoke(target, 2L, 3.5));
+		assertEquals(1, clazz.getField("initCount").getInt(null));
+		assertEquals("two", select.invoke(target, 2));
+		assertEquals("many", select.invoke(target, 7));
+		assertEquals(10, count.invoke(target, 4));
+		assertEquals(1, clazz.getField("initCount").getInt(null));
+	}
+}
@@ -0,0 +1,109 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class MethodTableFingerprintTest {
+	
+	public static abstract class Methods extends AbstractList<String> implements Comparable<Methods> {
+		static final long LIMIT = 10L;
+		
+		static {
+			System.getProperty("x");
+		}
+		
+		public Methods(int i) {
+		}
+		
+		@Override
+		public String get(int index) {
+			return null;
+		}
+		
+		public abstract int[][] arrays(long l, double d, Object[] o, List<String>... lists);
+		
+		protected synchronized native void nativeMethod(boolean z, byte b, char c, short s, float f);
+		
+		private static void privateStatic() {
+		}
+		
+		public final void m\u00e4thod\u20ac() {
+		}
+		
+		@Override
+		public int compareTo(Methods o) {
+			return 0;
+		}
+	}
+	
+	public interface A {
+		void a(String s);
+	}
+	
+	public interface B {
+		void a(Object s);
+	}
+	
+	public static abstract class Plain {
+		public abstract void a(String s);
+	}
+	
+	public static abstract class WithHelpers {
+		public abstract void a(String s);
+		
+		private void helper() {
+		}
+		
+		static void util(WithHelpers helpers) {
+			helpers.helper();
+		}
+	}
+	
+	@Test
+	public void staticAndPrivateMethodsAreIgnored() throws IOException {
+		assertEquals(MethodTableFingerprint.of(Plain.class), MethodTableFingerprint.of(WithHelpers.class));
+		assertEquals(MethodTableFingerprint.of(Plain.class), MethodTableFingerprint.of(getBytes(WithHelpers.class)));
+	}
+	
+	@Test
+	public void classfileAndReflectionAgree() throws IOException {
+		assertEquals(MethodTableFingerprint.of(Methods.class), MethodTableFingerprint.of(getBytes(Methods.class)));
+		assertEquals(MethodTableFingerprint.of(ArrayList.class), MethodTableFingerprint.of(getBytes(ArrayList.class)));
+		assertEquals(MethodTableFingerprint.of(A.class), MethodTableFingerprint.of(getBytes(A.class)));
+	}
+	
+	@Test
+	public void differentMethodsDiffer() {
+		assertFalse(MethodTableFingerprint.of(A.class).equals(MethodTableFingerprint.of(B.class)));
+		assertFalse(MethodTableFingerprint.of(A.class).equals(MethodTableFingerprint.of(Methods.class)));
+	}
+	
+	@Test
+	public void fingerprintMapStoresValues() {
+		FingerprintMap map = new FingerprintMap(4);
+		MethodTableFingerprint a = MethodTableFingerprint.of(A.class);
+		MethodTableFingerprint b = MethodTableFingerprint.of(B.class);
+		for (long key = 0; key < 100; key++) {
+			map.put(key, key % 2 == 0 ? a : b);
+		}
+		map.put(7, a);
+		assertEquals(100, map.size());
+		assertTrue(map.matches(0, a));
+		assertTrue(map.matches(7, a));
+		assertTrue(map.matches(99, b));
+		assertEquals(b, map.get(51));
+		assertFalse(map.containsKey(100));
+		assertNull(map.get(100));
+	}
+}
@@ -0,0 +1,62 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyBytecodeCacheTest {
+	
+	public interface Thrower {
+		void call();
+	}
+	
+	/* the next version of Thrower, only the throws clause differs */
+	public interface ThrowerChanged {
+		void call() throws IOException;
+	}
+	
+	public static abstract class ThrowerProxy implements Thrower {
+	}
+	
+	@Test
+	public void keyDependsOnProxyAndGenerator() {
+		String key = ProxyBytecodeCache.getKey("generator", ArrayList.class);
+		assertEquals(64, key.length());
+		assertEquals(key, ProxyBytecodeCache.getKey("generator", ArrayList.class));
+		assertFalse(key.equals(ProxyBytecodeCache.getKey("other", ArrayList.class)));
+		assertFalse(key.equals(ProxyBytecodeCache.getKey("generator", LinkedList.class)));
+	}
+	
+	@Test
+	public void changedThrowsClauseChangesKey() throws IOException {
+		byte[] changed = getBytes(ThrowerChanged.class);
+		assertEquals(MethodTableFingerprint.of(getBytes(Thrower.class)), MethodTableFingerprint.of(changed));
+		String key = ProxyBytecodeCache.getKey("generator", ThrowerProxy.class);
+		ProxyBytecodeCache.putDefinition(Thrower.class.getName(), changed);
+		String changedKey = ProxyBytecodeCache.getKey("generator", ThrowerProxy.class);
+		assertFalse(key.equals(changedKey));
+		
+		// the class generated for the previous version is not served
+		ProxyBytecodeCache.put(key, new byte[] { 1 });
+		assertNull(ProxyBytecodeCache.get(changedKey));
+	}
+	
+	@Test
+	public void storesBytes() {
+		String key = ProxyBytecodeCache.getKey(getClass().getName() + System.nanoTime(), Serializable.class);
+		assertNull(ProxyBytecodeCache.get(key));
+		byte[] bytes = new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE };
+		ProxyBytecodeCache.put(key, bytes);
+		assertArrayEquals(bytes, ProxyBytecodeCache.get(key));
+	}
+}
@@ -0,0 +1,48 @@
+package io.github.proxyhotswap;
+
+import static io.github.proxyhotswap.ClassfileScannerTest.getBytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyIndexTest {
+	
+	public static abstract class Indexed extends AbstractList<String> implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	public static abstract class NotIndexed extends AbstractList<String> {
+	}
+	
+	@Test
+	public void readsNamesFromClassfile() throws IOException {
+		byte[] bytes = getBytes(Indexed.class);
+		assertEquals("io/github/proxyhotswap/ProxyIndexTest$Indexed", ClassfileScanner.getClassName(bytes));
+		assertArrayEquals(new String[] { "java/util/AbstractList", "java/io/Serializable" },
+				ClassfileScanner.getSupertypeNames(bytes));
+	}
+	
+	@Test
+	public void marksDependentsChanged() throws IOException {
+		ProxyIndex.register(Indexed.class.getClassLoader(), getBytes(Indexed.class));
+		assertTrue(ProxyIndex.isIndexed(Indexed.class));
+		assertFalse(ProxyIndex.isIndexed(NotIndexed.class));
+		assertTrue(ProxyIndex.hasDependents("java.io.Serializable"));
+		assertFalse(ProxyIndex.hasDependents("java.lang.Object"));
+		assertTrue(ProxyIndex.hasDependents("java.util.AbstractList"));
+		
+		assertFalse(ProxyIndex.isChanged(Indexed.class));
+		ProxyIndex.markChanged("java.io.Serializable");
+		assertTrue(ProxyIndex.isChanged(Indexed.class));
+		ProxyIndex.clearChanged(Indexed.class);
+		assertFalse(ProxyIndex.isChanged(Indexed.class));
+	}
+}
@@ -0,0 +1,151 @@
+package io.github.proxyhotswap;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+import io.github.proxyhotswap.metrics.Timer;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class RedefinitionSchedulerTest {
+	
+	/* records redefineClasses calls, fails calls that contain the failing class */
+	private static class RecordingInstrumentation implements InvocationHandler {
+		private final List<Integer> calls = new ArrayList<>();
+		private final Class<?> failing;
+		private final Throwable error;
+		
+		public RecordingInstrumentation(Class<?> failing) {
+			this(failing, failing != null ? new ClassNotFoundException(failing.getName()) : null);
+		}
+		
+		public RecordingInstrumentation(Class<?> failing, Throwable error) {
+			this.failing = failing;
+			this.error = error;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			ClassDefinition[] definitions = (ClassDefinition[]) args[0];
+			synchronized (calls) {
+				calls.add(definitions.length);
+			}
+			for (ClassDefinition definition : definitions) {
+				if (definition.getDefinitionClass() == failing)
+					throw error;
+			}
+			return null;
+		}
+		
+		public Instrumentation create() {
+			return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { Instrumentation.class }, this);
+		}
+	}
+	
+	private static class RecordingCallback implements RedefinitionScheduler.Callback {
+		private final List<Class<?>> retried = new ArrayList<>();
+		private final List<Class<?>> failed = new ArrayList<>();
+		
+		@Override
+		public synchronized void retrying(Class<?> clazz) {
+			retried.add(clazz);
+		}
+		
+		@Override
+		public synchronized void failed(Class<?> clazz, Throwable e) {
+			failed.add(clazz);
+		}
+	}
+	
+	private final Counter batches = Metrics.counter("redefinition.batches");
+	private final Counter classes = Metrics.counter("redefinition.classes");
+	private final Counter failed = Metrics.counter("redefinition.failed");
+	private final Timer latency = Metrics.timer("redefinition.latency");
+	private long batchesBefore;
+	private long classesBefore;
+	private long failedBefore;
+	private long latencyCountBefore;
+	
+	@Before
+	public void setUp() {
+		batchesBefore = batches.get();
+		classesBefore = classes.get();
+		failedBefore = failed.get();
+		latencyCountBefore = latency.getCount();
+	}
+	
+	@Test
+	public void redefinesWindowInOneCall() throws InterruptedException {
+		RecordingInstrumentation inst = new RecordingInstrumentation(null);
+		RedefinitionScheduler scheduler = new RedefinitionScheduler(inst.create());
+		RecordingCallback callback = new RecordingCallback();
+		scheduler.schedule(String.class, new byte[0], callback);
+		scheduler.schedule(Integer.class, new byte[0], callback);
+		scheduler.schedule(Long.class, new byte[0], callback);
+		scheduler.schedule(String.class, new byte[0], callback);
+		waitForBatches(1);
+		
+		assertEquals(1, inst.calls.size());
+		assertEquals(3, (int) inst.calls.get(0));
+		assertEquals(3, classes.get() - classesBefore);
+		assertEquals(0, failed.get() - failedBefore);
+		assertEquals(1, latency.getCount() - latencyCountBefore);
+		assertTrue(callback.retried.isEmpty());
+	}
+	
+	@Test
+	public void retriesFailedBatchSeparately() throws InterruptedException {
+		RecordingInstrumentation inst = new RecordingInstrumentation(Integer.class);
+		RedefinitionScheduler scheduler = new RedefinitionScheduler(inst.create());
+		RecordingCallback callback = new RecordingCallback();
+		scheduler.schedule(String.class, new byte[0], callback);
+		scheduler.schedule(Integer.class, new byte[0], callback);
+		scheduler.schedule(Long.class, new byte[0], callback);
+		waitForBatches(1);
+		
+		assertEquals(4, inst.calls.size());
+		assertEquals(3, callback.retried.size());
+		assertEquals(1, callback.failed.size());
+		assertSame(Integer.class, callback.failed.get(0));
+		assertEquals(3, classes.get() - classesBefore);
+		assertEquals(1, failed.get() - failedBefore);
+	}
+	
+	@Test
+	public void invalidClassFailsOnlyItself() throws InterruptedException {
+		RecordingInstrumentation inst = new RecordingInstrumentation(Integer.class, new VerifyError("bad proxy"));
+		RedefinitionScheduler scheduler = new RedefinitionScheduler(inst.create());
+		RecordingCallback callback = new RecordingCallback();
+		scheduler.schedule(String.class, new byte[0], callback);
+		scheduler.schedule(Integer.class, new byte[0], callback);
+		waitForBatches(1);
+		
+		assertEquals(1, batches.get() - batchesBefore);
+		assertEquals(3, inst.calls.size());
+		assertEquals(2, callback.retried.size());
+		assertEquals(1, callback.failed.size());
+		assertSame(Integer.class, callback.failed.get(0));
+		assertEquals(2, classes.get() - classesBefore);
+		assertEquals(1, failed.get() - failedBefore);
+	}
+	
+	private void waitForBatches(int count) throws InterruptedException {
+		for (int i = 0; i < 500 && batches.get() - batchesBefore < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+}
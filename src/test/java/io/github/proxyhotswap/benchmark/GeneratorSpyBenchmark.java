@@ -0,0 +1,134 @@
+package io.github.proxyhotswap.benchmark;
+
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.cglib.GeneratorSpyTransformer;
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.javassist.CtMethod;
+import io.github.proxyhotswap.javassist.bytecode.AccessFlag;
+import io.github.proxyhotswap.javassist.bytecode.Bytecode;
+import io.github.proxyhotswap.javassist.bytecode.ClassFile;
+import io.github.proxyhotswap.javassist.bytecode.ConstPool;
+import io.github.proxyhotswap.javassist.bytecode.FieldInfo;
+import io.github.proxyhotswap.javassist.bytecode.MethodInfo;
+import io.github.proxyhotswap.javassist.bytecode.Opcode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+/**
+ * Simulates application startup: feeds a synthetic classpath of N class files through the GeneratorSpyTransformer
+ * class load hook and compares it to the full javassist parse that used to be done for every loaded class. One in every
+ * strategyInterval classes implements GeneratorStrategy, those are parsed and instrumented by both paths.
+ * 
+ * Usage: GeneratorSpyBenchmark [classCount] [rounds] [strategyInterval]
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class GeneratorSpyBenchmark {
+	/* repackaged like the cglib copy of Spring, the transformer only matches the simple name */
+	private static final String STRATEGY_NAME = "bench.cglib.core.GeneratorStrategy";
+	private static final String GENERATE_DESCRIPTOR = "(Ljava/lang/Object;)[B";
+	
+	public static void main(String[] args) throws Exception {
+		int classCount = args.length > 0 ? Integer.parseInt(args[0]) : 40000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int strategyInterval = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		
+		// the interface is resolved through the shared ClassPool, like the one loaded by the application
+		TransformationUtils.makeSharedClass(createStrategyInterface());
+		byte[][] classes = createClasses(classCount, strategyInterval);
+		GeneratorSpyTransformer transformer = new GeneratorSpyTransformer();
+		
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			int prefilterHits = 0;
+			for (int i = 0; i < classes.length; i++) {
+				if (transformer.transform(null, "bench/C" + i, null, null, classes[i]) != null)
+					prefilterHits++;
+			}
+			long prefilter = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			int parseHits = 0;
+			ClassPool pool = new ClassPool(TransformationUtils.getClassPool());
+			for (byte[] bytes : classes) {
+				if (transformWithoutPrescan(pool, bytes) != null)
+					parseHits++;
+			}
+			long parse = System.nanoTime() - start;
+			
+			if (prefilterHits != parseHits)
+				throw new IllegalStateException("Paths disagree: " + prefilterHits + " != " + parseHits);
+			System.out.printf("round %d: %d classes, %d strategies, pre-scan %d ms (%d ns/class), "
+					+ "full parse %d ms (%d ns/class)%n", round, classCount, parseHits, prefilter / 1000000, prefilter
+					/ classCount, parse / 1000000, parse / classCount);
+		}
+	}
+	
+	/**
+	 * What GeneratorSpyTransformer did for every class before the pre-scan.
+	 */
+	private static byte[] transformWithoutPrescan(ClassPool pool, byte[] bytes) throws Exception {
+		CtClass cc = pool.makeClass(new ByteArrayInputStream(bytes), false);
+		for (CtClass intf : cc.getInterfaces()) {
+			if (intf.getSimpleName().equals("GeneratorStrategy")) {
+				for (CtMethod method : intf.getMethods()) {
+					if (method.getName().equals("generate") && method.getReturnType().getSimpleName().equals("byte[]")) {
+						cc.getDeclaredMethod("generate").insertAfter(
+								GeneratorSpyTransformer.class.getName() + ".register($0, $1, $_);");
+						return cc.toBytecode();
+					}
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static byte[] createStrategyInterface() throws Exception {
+		ClassFile cf = new ClassFile(true, STRATEGY_NAME, null);
+		MethodInfo generate = new MethodInfo(cf.getConstPool(), "generate", GENERATE_DESCRIPTOR);
+		generate.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT);
+		cf.addMethod(generate);
+		return toBytes(cf);
+	}
+	
+	private static byte[][] createClasses(int classCount, int strategyInterval) throws Exception {
+		byte[][] classes = new byte[classCount][];
+		for (int i = 0; i < classCount; i++) {
+			boolean strategy = i % strategyInterval == strategyInterval - 1;
+			ClassFile cf = new ClassFile(false, "bench.pkg" + (i % 100) + ".C" + i, null);
+			cf.setAccessFlags(AccessFlag.PUBLIC | (strategy ? 0 : AccessFlag.ABSTRACT));
+			if (strategy)
+				cf.setInterfaces(new String[] { "java.io.Serializable", STRATEGY_NAME });
+			else
+				cf.setInterfaces(new String[] { "java.io.Serializable", "java.lang.Comparable" });
+			ConstPool cp = cf.getConstPool();
+			for (int j = 0; j < 10; j++) {
+				cf.addField(new FieldInfo(cp, "field" + j, "Ljava/lang/String;"));
+				MethodInfo m = new MethodInfo(cp, "method" + j, "(ILjava/util/List;)Ljava/lang/String;");
+				m.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT);
+				cf.addMethod(m);
+			}
+			if (strategy) {
+				MethodInfo generate = new MethodInfo(cp, "generate", GENERATE_DESCRIPTOR);
+				generate.setAccessFlags(AccessFlag.PUBLIC);
+				Bytecode code = new Bytecode(cp, 1, 2);
+				code.addOpcode(Opcode.ACONST_NULL);
+				code.addOpcode(Opcode.ARETURN);
+				generate.setCodeAttribute(code.toCodeAttribute());
+				cf.addMethod(generate);
+			}
+			classes[i] = toBytes(cf);
+		}
+		return classes;
+	}
+	
+	private static byte[] toBytes(ClassFile cf) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		cf.write(new DataOutputStream(bout));
+		return bout.toByteArray();
+	}
+}
@@ -0,0 +1,80 @@
+package io.github.proxyhotswap.benchmark;
+
+import io.github.proxyhotswap.InitGuard;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.javassist.CtField;
+import io.github.proxyhotswap.javassist.CtMethod;
+import io.github.proxyhotswap.javassist.CtNewMethod;
+import io.github.proxyhotswap.javassist.Modifier;
+import io.github.proxyhotswap.javassist.bytecode.ClassFile;
+
+/**
+ * Adds the init guard to every method of a proxy like class implementing an interface with many methods, once with
+ * CtMethod.insertBefore for each method and once with an InitGuard compiled for the class.
+ * 
+ * Usage: InitGuardBenchmark [methodCount] [rounds]
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class InitGuardBenchmark {
+	private static final String INIT_FIELD = "initCalled";
+	private static final String INIT_CALL = "init();";
+	
+	public static void main(String[] args) throws Exception {
+		int methodCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		
+		byte[] proxy = createProxy(methodCount);
+		for (int round = 0; round < rounds; round++) {
+			CtClass cc = TransformationUtils.makeScopedClass(proxy);
+			long start = System.nanoTime();
+			for (CtMethod method : cc.getDeclaredMethods()) {
+				if (!Modifier.isStatic(method.getModifiers()))
+					method.insertBefore("if(!" + INIT_FIELD + "){" + INIT_CALL + "}");
+			}
+			long insertBefore = System.nanoTime() - start;
+			int insertBeforeSize = cc.toBytecode().length;
+			
+			cc = TransformationUtils.makeScopedClass(proxy);
+			start = System.nanoTime();
+			InitGuard guard = InitGuard.compile(cc, INIT_FIELD, INIT_CALL);
+			for (CtMethod method : cc.getDeclaredMethods()) {
+				if (!Modifier.isStatic(method.getModifiers()))
+					guard.insertInto(method);
+			}
+			long template = System.nanoTime() - start;
+			int templateSize = cc.toBytecode().length;
+			
+			if (insertBeforeSize != templateSize)
+				throw new IllegalStateException("Class sizes differ: " + insertBeforeSize + " != " + templateSize);
+			System.out.printf("round %d: %d methods, insertBefore %.2f ms, guard template %.2f ms%n", round,
+					methodCount, insertBefore / 1e6, template / 1e6);
+		}
+	}
+	
+	/**
+	 * Class with an init field, a static init method and methodCount instance methods shaped like the methods of a
+	 * java.lang.reflect.Proxy class.
+	 */
+	private static byte[] createProxy(int methodCount) throws Exception {
+		CtClass cc = TransformationUtils.getClassPool().makeClass("bench.$Proxy" + methodCount);
+		// the class file version of java.lang.reflect.Proxy classes, without stack map frames
+		cc.getClassFile().setMajorVersion(ClassFile.JAVA_5);
+		CtField initField = new CtField(CtClass.booleanType, INIT_FIELD, cc);
+		initField.setModifiers(Modifier.PRIVATE | Modifier.STATIC);
+		cc.addField(initField);
+		cc.addField(CtField.make("private java.lang.reflect.InvocationHandler h;", cc));
+		cc.addMethod(CtNewMethod.make("private static void init() { " + INIT_FIELD + " = true; }", cc));
+		for (int i = 0; i < methodCount; i++) {
+			cc.addMethod(CtNewMethod.make("public Object method" + i + "(Object arg, int i) { "
+					+ "try { return h.invoke(this, null, new Object[] { arg, Integer.valueOf(i) }); } "
+					+ "catch (RuntimeException e) { throw e; } "
+					+ "catch (Throwable t) { throw new java.lang.reflect.UndeclaredThrowableException(t); } }", cc));
+		}
+		byte[] bytes = cc.toBytecode();
+		cc.detach();
+		return bytes;
+	}
+}
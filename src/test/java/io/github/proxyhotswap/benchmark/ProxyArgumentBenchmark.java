@@ -0,0 +1,70 @@
+package io.github.proxyhotswap.benchmark;
+
+import io.github.proxyhotswap.ByteClassLoader;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.java.CtClassJavaProxyGenerator;
+import io.github.proxyhotswap.java.CtClassJavaProxyGenerator.MethodResolution;
+import io.github.proxyhotswap.javassist.CtClass;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Calls a generated proxy with long and int arguments and reports the time and the bytes allocated per call, once with
+ * the boxes of Long.valueOf and Integer.valueOf and once with the cached boxes of ProxyArguments. The allocation is read
+ * from com.sun.management.ThreadMXBean, so it needs a HotSpot based JVM.
+ * 
+ * Usage: ProxyArgumentBenchmark [calls] [rounds]
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class ProxyArgumentBenchmark {
+	
+	public interface Dao {
+		Object find(long id, int version);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return args[0];
+			}
+		};
+		Dao allocating = createProxy(false, handler);
+		Dao caching = createProxy(true, handler);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		for (int round = 0; round < rounds; round++) {
+			for (Dao dao : new Dao[] { allocating, caching }) {
+				long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+				long start = System.nanoTime();
+				int sink = 0;
+				for (int i = 0; i < calls; i++) {
+					// keys above the Long.valueOf cache, but inside the one of ProxyArguments
+					sink += dao.find(i & 1023, i & 7).hashCode() & 1;
+				}
+				long time = System.nanoTime() - start;
+				bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+				System.out.printf("round %d: %s %.2f ns/call, %.1f bytes/call (%d)%n", round,
+						dao == allocating ? "valueOf boxes" : "cached boxes", (double) time / calls, (double) bytes
+								/ calls, sink);
+			}
+		}
+	}
+	
+	private static Dao createProxy(boolean cacheArgumentBoxes, InvocationHandler handler) throws Exception {
+		String name = "bench.DaoProxy" + (cacheArgumentBoxes ? "Caching" : "Allocating");
+		CtClass[] interfaces = { TransformationUtils.getClassPool().get(Dao.class.getName()) };
+		byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces,
+				Modifier.PUBLIC | Modifier.FINAL, MethodResolution.EAGER, cacheArgumentBoxes);
+		Class<?> clazz = new ByteClassLoader().define(name, bytes);
+		return (Dao) clazz.getConstructor(InvocationHandler.class).newInstance(handler);
+	}
+}
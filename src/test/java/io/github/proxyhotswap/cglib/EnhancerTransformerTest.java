@@ -0,0 +1,47 @@
+package io.github.proxyhotswap.cglib;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.ByteClassLoader;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class EnhancerTransformerTest {
+	
+	/* not public, like the strategies some libraries define as nested classes */
+	private static class Strategy {
+		private int calls;
+		
+		public byte[] generate(Object generator) {
+			calls++;
+			return new byte[] { (byte) calls };
+		}
+	}
+	
+	@Test
+	public void regeneratesThroughCachedGenerateMethod() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		ByteClassLoader loader = new ByteClassLoader();
+		registry.register("test/Cached$$EnhancerByCGLIB$$1", new GeneratorParams(new Strategy(), new Generator(loader)));
+		Class<?> proxy = loader.define("test.Cached$$EnhancerByCGLIB$$1");
+		
+		EnhancerTransformer transformer = new EnhancerTransformer(null, false, registry);
+		String name = "test/Cached$$EnhancerByCGLIB$$1";
+		assertArrayEquals(new byte[] { 1 }, transformer.getNewByteCode(loader, name, proxy));
+		assertArrayEquals(new byte[] { 2 }, transformer.getNewByteCode(loader, name, proxy));
+	}
+	
+	@Test
+	public void unregisteredClassFails() throws Exception {
+		try {
+			new EnhancerTransformer(null, false, new GeneratorRegistry()).getNewByteCode(null, "java/lang/String",
+					String.class);
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("No Parameters found for redefinition!", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package io.github.proxyhotswap.cglib;
+
+/**
+ * Stands in for the Enhancer, the registry asks it for the class loader.
+ * 
+ * @author Erki Ehtla
+ * 
+ */
+public class Generator {
+	private final ClassLoader classLoader;
+	
+	public Generator(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+	
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+}
@@ -0,0 +1,102 @@
+package io.github.proxyhotswap.cglib;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.ByteClassLoader;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class GeneratorRegistryTest {
+	
+	@Test
+	public void registrationMovesToDefinedClass() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		ByteClassLoader loader = new ByteClassLoader();
+		GeneratorParams params = new GeneratorParams(new Object(), new Generator(loader));
+		registry.register("test/Proxy$$EnhancerByCGLIB$$1", params);
+		assertTrue(registry.isPending(loader, "test/Proxy$$EnhancerByCGLIB$$1"));
+		
+		Class<?> proxy = loader.define("test.Proxy$$EnhancerByCGLIB$$1");
+		registry.expunge();
+		assertFalse(registry.isPending(loader, "test/Proxy$$EnhancerByCGLIB$$1"));
+		assertSame(params, registry.get(proxy));
+		assertEquals(1, registry.size());
+	}
+	
+	@Test
+	public void classOfOtherLoaderIsNotMatched() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		ByteClassLoader loader = new ByteClassLoader();
+		ByteClassLoader otherLoader = new ByteClassLoader();
+		registry.register("test/Other$$EnhancerByCGLIB$$1", new GeneratorParams(null, new Generator(loader)));
+		assertFalse(registry.isPending(otherLoader, "test/Other$$EnhancerByCGLIB$$1"));
+		Class<?> other = otherLoader.define("test.Other$$EnhancerByCGLIB$$1");
+		assertNull(registry.get(other));
+		assertNull(registry.get(String.class));
+		assertTrue(registry.isPending(loader, "test/Other$$EnhancerByCGLIB$$1"));
+	}
+	
+	@Test
+	public void sameNameInTwoLoadersIsKeptApart() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		ByteClassLoader first = new ByteClassLoader();
+		ByteClassLoader second = new ByteClassLoader();
+		GeneratorParams firstParams = new GeneratorParams(null, new Generator(first));
+		GeneratorParams secondParams = new GeneratorParams(null, new Generator(second));
+		registry.register("test/Shared$$EnhancerByCGLIB$$1", firstParams);
+		registry.register("test/Shared$$EnhancerByCGLIB$$1", secondParams);
+		assertEquals(2, registry.size());
+		assertSame(secondParams, registry.get(second.define("test.Shared$$EnhancerByCGLIB$$1")));
+		assertSame(firstParams, registry.get(first.define("test.Shared$$EnhancerByCGLIB$$1")));
+	}
+	
+	@Test
+	public void generatorWithoutClassLoaderMatchesAnyLoader() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		GeneratorParams params = new GeneratorParams(null, new Object());
+		registry.register("test/Unknown$$EnhancerByCGLIB$$1", params);
+		ByteClassLoader loader = new ByteClassLoader();
+		assertTrue(registry.isPending(loader, "test/Unknown$$EnhancerByCGLIB$$1"));
+		assertSame(params, registry.get(loader.define("test.Unknown$$EnhancerByCGLIB$$1")));
+	}
+	
+	@Test
+	public void registrationsAreMovedInTheBackground() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		ByteClassLoader loader = new ByteClassLoader();
+		registry.register("test/Background$$EnhancerByCGLIB$$1", new GeneratorParams(null, new Generator(loader)));
+		loader.define("test.Background$$EnhancerByCGLIB$$1");
+		for (int i = 0; i < 100 && registry.isPending(loader, "test/Background$$EnhancerByCGLIB$$1"); i++) {
+			Thread.sleep(50);
+		}
+		assertFalse(registry.isPending(loader, "test/Background$$EnhancerByCGLIB$$1"));
+		assertEquals(1, registry.size());
+	}
+	
+	@Test
+	public void unloadedProxiesAreEvicted() throws Exception {
+		GeneratorRegistry registry = new GeneratorRegistry();
+		Counter evicted = Metrics.counter("cglib.generators.evicted");
+		long evictedBefore = evicted.get();
+		registerAndDefine(registry, "test/Unloaded$$EnhancerByCGLIB$$1");
+		assertEquals(1, registry.size());
+		for (int i = 0; i < 20 && registry.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			registry.expunge();
+		}
+		assertEquals(0, registry.size());
+		assertEquals(evictedBefore + 1, evicted.get());
+	}
+	
+	private static void registerAndDefine(GeneratorRegistry registry, String name) throws Exception {
+		ByteClassLoader loader = new ByteClassLoader();
+		registry.register(name, new GeneratorParams(null, new Generator(loader)));
+		assertNotNull(registry.get(loader.define(name.replace('/', '.'))));
+	}
+}
@@ -0,0 +1,297 @@
+package io.github.proxyhotswap.java;
+
+import static org.junit.Assert.*;
+
+import io.github.proxyhotswap.ByteClassLoader;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.javassist.ClassPool;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class CtClassJavaProxyGeneratorTest {
+	
+	public interface Service {
+		int add(int a, int b);
+		
+		String name();
+		
+		long parse(String value) throws IOException;
+	}
+	
+	public interface Reader {
+		String read() throws IOException;
+	}
+	
+	public interface FileReader {
+		String read() throws java.io.FileNotFoundException;
+	}
+	
+	public interface Builder {
+		Builder with(String value);
+	}
+	
+	private static class RecordingHandler implements InvocationHandler {
+		private List<Method> methods = new ArrayList<>();
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			methods.add(method);
+			if (method.getName().equals("add"))
+				return (Integer) args[0] + (Integer) args[1];
+			if (method.getName().equals("parse")) {
+				if (args[0] == null)
+					throw new IOException("null");
+				if (args[0].equals("x"))
+					throw new Exception("undeclared");
+				return Long.parseLong((String) args[0]);
+			}
+			return method.getName();
+		}
+	}
+	
+	@Test
+	public void lazyResolutionResolvesOnlyCalledMethods() throws Exception {
+		String name = "io.github.proxyhotswap.java.LazyServiceProxy";
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Service.class.getName()) };
+		byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+				| Modifier.FINAL,
+				CtClassJavaProxyGenerator.MethodResolution.LAZY, false);
+		
+		Class<?> clazz = new ByteClassLoader().define(name, bytes);
+		RecordingHandler handler = new RecordingHandler();
+		Service service = (Service) clazz.getConstructor(InvocationHandler.class).newInstance(handler);
+		
+		for (Field field : clazz.getDeclaredFields()) {
+			field.setAccessible(true);
+			assertNull(field.get(null));
+		}
+		assertEquals(5, service.add(2, 3));
+		int resolved = 0;
+		for (Field field : clazz.getDeclaredFields()) {
+			field.setAccessible(true);
+			if (field.get(null) != null)
+				resolved++;
+		}
+		assertEquals(1, resolved);
+		
+		assertEquals("name", service.name());
+		assertEquals(7, service.add(3, 4));
+		assertEquals(Service.class.getMethod("add", int.class, int.class), handler.methods.get(0));
+		assertEquals(Service.class.getMethod("name"), handler.methods.get(1));
+		assertSame(handler.methods.get(0), handler.methods.get(2));
+		assertEquals("toString", service.toString());
+	}
+	
+	@Test
+	public void invokedynamicProxyCallsHandler() throws Exception {
+		String name = "io.github.proxyhotswap.java.IndyServiceProxy";
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Service.class.getName()) };
+		byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+				| Modifier.FINAL, CtClassJavaProxyGenerator.MethodResolution.INVOKEDYNAMIC, false);
+		assertEquals(51, ((bytes[6] & 0xFF) << 8) | (bytes[7] & 0xFF));
+		
+		Class<?> clazz = new ByteClassLoader().define(name, bytes);
+		assertEquals(0, clazz.getDeclaredFields().length);
+		RecordingHandler handler = new RecordingHandler();
+		Service service = (Service) clazz.getConstructor(InvocationHandler.class).newInstance(handler);
+		
+		assertEquals(5, service.add(2, 3));
+		assertEquals(7, service.add(3, 4));
+		assertEquals("name", service.name());
+		assertEquals(42L, service.parse("42"));
+		try {
+			service.parse(null);
+			fail();
+		} catch (IOException e) {
+			assertEquals("null", e.getMessage());
+		}
+		try {
+			service.parse("x");
+			fail();
+		} catch (UndeclaredThrowableException e) {
+			assertEquals("undeclared", e.getCause().getMessage());
+		}
+		assertEquals(Service.class.getMethod("add", int.class, int.class), handler.methods.get(0));
+		assertSame(handler.methods.get(0), handler.methods.get(1));
+		assertEquals(Service.class.getMethod("name"), handler.methods.get(2));
+		assertEquals(Object.class.getMethod("hashCode"), getMethodOf(handler, service));
+	}
+	
+	@Test
+	public void cachedArgumentBoxes() throws Exception {
+		String name = "io.github.proxyhotswap.java.BoxCachingServiceProxy";
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Service.class.getName()) };
+		for (CtClassJavaProxyGenerator.MethodResolution resolution : CtClassJavaProxyGenerator.MethodResolution
+				.values()) {
+			byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+					| Modifier.FINAL, resolution, true);
+			Class<?> clazz = new ByteClassLoader().define(name, bytes);
+			final List<Object[]> arrays = new ArrayList<>();
+			Service service = (Service) clazz.getConstructor(InvocationHandler.class).newInstance(
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							arrays.add(args);
+							return (Integer) args[0] + (Integer) args[1];
+						}
+					});
+			
+			assertEquals(1002, service.add(1000, 2));
+			assertEquals(1002, service.add(1000, 2));
+			// the handler may keep the arguments, every call gets its own array
+			assertNotSame(arrays.get(0), arrays.get(1));
+			assertArrayEquals(new Object[] { 1000, 2 }, arrays.get(0));
+			assertSame(arrays.get(0)[0], arrays.get(1)[0]);
+			assertEquals(100002, service.add(100000, 2));
+			assertEquals(100000, arrays.get(2)[0]);
+		}
+	}
+	
+	@Test
+	public void classFilesOfAllModesAreValid() throws Exception {
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Map.class.getName()), pool.get(Service.class.getName()) };
+		int i = 0;
+		for (CtClassJavaProxyGenerator.MethodResolution resolution : CtClassJavaProxyGenerator.MethodResolution
+				.values()) {
+			for (boolean cacheArgumentBoxes : new boolean[] { false, true }) {
+				String name = "io.github.proxyhotswap.java.MapProxy" + i++;
+				// the generator checks that the class file fills the array it computed the size for
+				byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+						| Modifier.FINAL, resolution, cacheArgumentBoxes);
+				Class<?> clazz = new ByteClassLoader().define(name, bytes);
+				Map<?, ?> map = (Map<?, ?>) clazz.getConstructor(InvocationHandler.class).newInstance(
+						new RecordingHandler());
+				assertEquals("toString", map.toString());
+				assertEquals("name", ((Service) map).name());
+			}
+		}
+	}
+	
+	@Test
+	public void sameInterfacesGiveSameClassFile() throws Exception {
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Service.class.getName()) };
+		CtClass[] more = { pool.get(Service.class.getName()), pool.get(Reader.class.getName()) };
+		String name = "io.github.proxyhotswap.java.StableProxy";
+		for (CtClassJavaProxyGenerator.MethodResolution resolution : CtClassJavaProxyGenerator.MethodResolution
+				.values()) {
+			byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+					| Modifier.FINAL, resolution, false);
+			assertArrayEquals(bytes, CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+					| Modifier.FINAL, resolution, false));
+			if (resolution == CtClassJavaProxyGenerator.MethodResolution.INVOKEDYNAMIC)
+				continue;
+			// the init guard and the lazily resolved Method fields are renamed when the methods change
+			Field[] fields = new ByteClassLoader().define(name, bytes).getDeclaredFields();
+			Field[] changed = new ByteClassLoader().define(name,
+					CtClassJavaProxyGenerator.generateProxyClass(name, more, Modifier.PUBLIC | Modifier.FINAL,
+							resolution, false)).getDeclaredFields();
+			int renamed = 0;
+			for (Field field : fields) {
+				if (!field.getName().startsWith("clinitCalled") && field.getName().indexOf('$') < 0)
+					continue;
+				renamed++;
+				for (Field other : changed) {
+					assertFalse(field.getName().equals(other.getName()));
+				}
+			}
+			assertTrue(renamed > 0);
+		}
+	}
+	
+	@Test
+	public void constantPoolsStartWithSharedEntries() throws Exception {
+		ClassPool pool = TransformationUtils.getClassPool();
+		byte[] service = CtClassJavaProxyGenerator.generateProxyClass("io.github.proxyhotswap.java.SharedProxy0",
+				new CtClass[] { pool.get(Service.class.getName()) });
+		byte[] map = CtClassJavaProxyGenerator.generateProxyClass("io.github.proxyhotswap.java.SharedProxy1",
+				new CtClass[] { pool.get(Map.class.getName()) });
+		// the entries after magic, version and constant_pool_count do not depend on the proxy
+		for (int i = 10; i < 512; i++) {
+			assertEquals(service[i], map[i]);
+		}
+		Service proxy = (Service) new ByteClassLoader().define("io.github.proxyhotswap.java.SharedProxy0", service)
+				.getConstructor(InvocationHandler.class).newInstance(new RecordingHandler());
+		assertEquals("name", proxy.name());
+	}
+	
+	@Test
+	public void interfaceAnalysisIsShared() throws Exception {
+		ClassPool pool = TransformationUtils.getClassPool();
+		CtClass[] interfaces = { pool.get(Reader.class.getName()), pool.get(FileReader.class.getName()) };
+		Counter hits = Metrics.counter("generate.interfaceAnalysis.hits");
+		CtClassJavaProxyGenerator.generateProxyClass("io.github.proxyhotswap.java.ReaderProxy0", interfaces);
+		long before = hits.get();
+		String name = "io.github.proxyhotswap.java.ReaderProxy1";
+		byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces);
+		assertEquals(2, hits.get() - before);
+		
+		Reader reader = (Reader) new ByteClassLoader().define(name, bytes).getConstructor(InvocationHandler.class)
+				.newInstance(new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						throw new IOException("io");
+					}
+				});
+		// the exceptions of the duplicate method are reduced to the ones both interfaces allow
+		try {
+			reader.read();
+			fail();
+		} catch (UndeclaredThrowableException e) {
+			assertEquals("io", e.getCause().getMessage());
+		}
+	}
+	
+	@Test
+	public void newDefinitionReplacesInterfaceAnalysis() throws Exception {
+		CtClass builder = TransformationUtils.getClassPool().get(Builder.class.getName());
+		Counter misses = Metrics.counter("generate.interfaceAnalysis.misses");
+		CtClassJavaProxyGenerator.generateProxyClass("io.github.proxyhotswap.java.BuilderProxy0",
+				new CtClass[] { builder });
+		long before = misses.get();
+		CtClass redefined = TransformationUtils.makeSharedClass(builder.toBytecode());
+		CtClassJavaProxyGenerator.generateProxyClass("io.github.proxyhotswap.java.BuilderProxy1",
+				new CtClass[] { redefined });
+		assertEquals(1, misses.get() - before);
+		
+		// the analysis of the old definition references it through the return type of with
+		WeakReference<CtClass> old = new WeakReference<>(builder);
+		builder = null;
+		for (int i = 0; i < 10 && old.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(old.get());
+	}
+	
+	private static Method getMethodOf(RecordingHandler handler, Object proxy) {
+		try {
+			proxy.hashCode();
+		} catch (ClassCastException e) {
+			// the handler returns the method name
+		}
+		return handler.methods.get(handler.methods.size() - 1);
+	}
+}
@@ -0,0 +1,48 @@
+package io.github.proxyhotswap.java;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.ClassView;
+import io.github.proxyhotswap.ProxyIndex;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import sun.misc.ProxyGenerator;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class JavassistSimpleJavaProxyTransformerTest {
+	
+	public interface Greeter {
+		String greet(String name);
+	}
+	
+	@Test
+	public void sameProxyIsNotRedefinedAgain() throws Exception {
+		Class<?> proxyClass = Proxy.getProxyClass(getClass().getClassLoader(), Greeter.class);
+		String name = proxyClass.getName();
+		byte[] loaded = ProxyGenerator.generateProxyClass(name, new Class<?>[] { Greeter.class }, Modifier.PUBLIC
+				| Modifier.FINAL);
+		ProxyIndex.register(proxyClass.getClassLoader(), loaded);
+		JavassistSimpleJavaProxyTransformer transformer = new JavassistSimpleJavaProxyTransformer();
+		Counter unchanged = Metrics.counter("generate.unchanged.JavassistSimpleJavaProxyTransformer");
+		
+		ProxyIndex.markChanged(Greeter.class.getName());
+		assertNotNull(transformer.transform(new ClassView(proxyClass.getClassLoader(), name.replace('.', '/'),
+				proxyClass, null, loaded)));
+		
+		// only unproxied members of the interface changed, the generated class file is the same
+		long before = unchanged.get();
+		ProxyIndex.markChanged(Greeter.class.getName());
+		assertNull(transformer.transform(new ClassView(proxyClass.getClassLoader(), name.replace('.', '/'),
+				proxyClass, null, loaded)));
+		assertEquals(1, unchanged.get() - before);
+		assertFalse(ProxyIndex.isChanged(proxyClass));
+	}
+}
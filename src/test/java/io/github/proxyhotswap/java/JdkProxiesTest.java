@@ -0,0 +1,93 @@
+package io.github.proxyhotswap.java;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.ClassView;
+import io.github.proxyhotswap.ClassfileScanner;
+import io.github.proxyhotswap.ProxyIndex;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.javassist.CtClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import sun.misc.ProxyGenerator;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class JdkProxiesTest {
+	
+	public interface Service {
+		String name();
+	}
+	
+	/* the proxies of a non-public interface are defined in its package and are not public */
+	interface Hidden {
+		String name();
+	}
+	
+	@Test
+	public void matchesProxyNamesOfAllLayouts() {
+		assertTrue(JdkProxies.isProxyName("com/sun/proxy/$Proxy12"));
+		assertTrue(JdkProxies.isProxyName("jdk/proxy1/$Proxy3"));
+		assertTrue(JdkProxies.isProxyName("com/example/$Proxy7"));
+		assertTrue(JdkProxies.isProxyName("$Proxy0"));
+		assertTrue(JdkProxies.isProxyName("jdk.proxy2.$Proxy41"));
+		assertFalse(JdkProxies.isProxyName("com/sun/proxy/$Proxy"));
+		assertFalse(JdkProxies.isProxyName("com/example/$ProxyFactory"));
+		assertFalse(JdkProxies.isProxyName("com/example/Service$$EnhancerByCGLIB$$1"));
+		assertFalse(JdkProxies.isProxyName("com/example/$Proxy1$Inner"));
+	}
+	
+	@Test
+	public void checksSuperclassOfProxies() throws Exception {
+		CtClass[] interfaces = { TransformationUtils.getClassPool().get(Service.class.getName()) };
+		for (String name : new String[] { "jdk.proxy1.$Proxy900100", "io.github.proxyhotswap.java.$Proxy900101" }) {
+			byte[] bytes = CtClassJavaProxyGenerator.generateProxyClass(name, interfaces, Modifier.PUBLIC
+					| Modifier.FINAL);
+			assertTrue(JdkProxies.isProxy(name.replace('.', '/'), bytes));
+		}
+		// named like a proxy, but not one
+		byte[] other = getBytes(Service.class);
+		assertFalse(JdkProxies.isProxy("jdk/proxy1/$Proxy900102", other));
+		assertFalse(JdkProxies.isProxy(null, other));
+	}
+	
+	@Test
+	public void regeneratedProxyKeepsAccessFlags() throws Exception {
+		Class<?> proxyClass = Proxy.getProxyClass(getClass().getClassLoader(), Hidden.class);
+		assertEquals(Modifier.FINAL, proxyClass.getModifiers());
+		String name = proxyClass.getName();
+		byte[] loaded = ProxyGenerator.generateProxyClass(name, new Class<?>[] { Hidden.class }, Modifier.FINAL);
+		ProxyIndex.register(proxyClass.getClassLoader(), loaded);
+		ProxyIndex.markChanged(Hidden.class.getName());
+		
+		byte[] regenerated = new JavassistSimpleJavaProxyTransformer().transform(new ClassView(proxyClass
+				.getClassLoader(), name.replace('.', '/'), proxyClass, null, loaded));
+		assertNotNull(regenerated);
+		assertEquals(Modifier.FINAL, ClassfileScanner.getAccessFlags(regenerated));
+		byte[] reflected = new JavaProxyTransformer(null).getNewByteCode(proxyClass.getClassLoader(), name, proxyClass);
+		assertEquals(Modifier.FINAL, ClassfileScanner.getAccessFlags(reflected));
+	}
+	
+	private static byte[] getBytes(Class<?> clazz) throws IOException {
+		InputStream in = clazz.getResourceAsStream(clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1)
+				+ ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package io.github.proxyhotswap.java;
+
+import static org.junit.Assert.*;
+import io.github.proxyhotswap.ByteClassLoader;
+import io.github.proxyhotswap.ProxyIndex;
+import io.github.proxyhotswap.TransformationUtils;
+import io.github.proxyhotswap.javassist.CtClass;
+import io.github.proxyhotswap.metrics.Counter;
+import io.github.proxyhotswap.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class ParallelProxyGeneratorTest {
+	private static final int FLAGS = Modifier.PUBLIC | Modifier.FINAL;
+	
+	public interface Parallel {
+		String call(long l);
+	}
+	
+	/* proxies of this interface are not changed with the proxies of the other test */
+	public interface Other {
+		String call(long l);
+	}
+	
+	@Test
+	public void generatesChangedProxiesInAdvance() throws Exception {
+		CtClass[] interfaces = { TransformationUtils.getClassPool().get(Parallel.class.getName()) };
+		ClassLoader loader = getClass().getClassLoader();
+		String[] names = new String[4];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "com.sun.proxy.$Proxy" + (900000 + i);
+			ProxyIndex.register(loader, CtClassJavaProxyGenerator.generateProxyClass(names[i], interfaces, FLAGS));
+		}
+		ProxyIndex.markChanged(Parallel.class.getName());
+		
+		Counter used = Metrics.counter("generate.parallel.used");
+		long usedBefore = used.get();
+		ParallelProxyGenerator generator = new ParallelProxyGenerator(2);
+		generator.generate(names[0], loader, interfaces, FLAGS);
+		// changed proxies of other tests are generated, too
+		assertTrue(generator.getPendingCount() >= names.length - 1);
+		for (int i = 1; i < names.length; i++) {
+			byte[] bytes = generator.generate(names[i], loader, interfaces, FLAGS);
+			Parallel proxy = (Parallel) new ByteClassLoader().define(names[i], bytes)
+					.getConstructor(InvocationHandler.class).newInstance(new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							return method.getName() + args[0];
+						}
+					});
+			assertEquals("call" + i, proxy.call(i));
+		}
+		assertEquals(names.length - 1, used.get() - usedBefore);
+	}
+	
+	@Test
+	public void newerChangeDropsPreparedResults() throws Exception {
+		CtClass[] interfaces = { TransformationUtils.getClassPool().get(Other.class.getName()) };
+		ClassLoader loader = getClass().getClassLoader();
+		String first = "com.sun.proxy.$Proxy900010";
+		String second = "com.sun.proxy.$Proxy900011";
+		ProxyIndex.register(loader, CtClassJavaProxyGenerator.generateProxyClass(first, interfaces, FLAGS));
+		ProxyIndex.register(loader, CtClassJavaProxyGenerator.generateProxyClass(second, interfaces, FLAGS));
+		ProxyIndex.markChanged(Other.class.getName());
+		
+		Counter used = Metrics.counter("generate.parallel.used");
+		ParallelProxyGenerator generator = new ParallelProxyGenerator(2);
+		generator.generate(first, loader, interfaces, FLAGS);
+		assertTrue(generator.getPendingCount() > 0);
+		ProxyIndex.markChanged(Other.class.getName());
+		long usedBefore = used.get();
+		assertNotNull(generator.generate(second, loader, interfaces, FLAGS));
+		assertEquals(usedBefore, used.get());
+	}
+}
@@ -0,0 +1,39 @@
+package io.github.proxyhotswap.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Erki Ehtla
+ * 
+ */
+public class MetricsTest {
+	
+	@Test
+	public void timerBucketsDurations() {
+		Timer timer = new Timer("test");
+		for (int i = 1; i <= 100; i++) {
+			timer.record(i * 1000);
+		}
+		assertEquals(100, timer.getCount());
+		assertEquals(5050000, timer.getTotalNanos());
+		assertEquals(100000, timer.getMaxNanos());
+		long p50 = timer.getPercentileNanos(50);
+		assertTrue(p50 >= 50000 && p50 < 100000);
+		assertEquals(100000, timer.getPercentileNanos(100));
+		timer.reset();
+		assertEquals(0, timer.getCount());
+		assertEquals(0, timer.getPercentileNanos(99));
+	}
+	
+	@Test
+	public void registryReturnsSameInstances() {
+		assertSame(Metrics.timer("test.timer"), Metrics.timer("test.timer"));
+		Counter counter = Metrics.counter("test.counter");
+		assertSame(counter, Metrics.counter("test.counter"));
+		counter.add(42);
+		assertTrue(Metrics.dump().contains("test.counter: 42\n"));
+		assertTrue(Metrics.dump().contains("test.timer: count=0"));
+	}
+}